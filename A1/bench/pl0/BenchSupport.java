@@ -0,0 +1,130 @@
+package pl0;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import parser.LexicalToken;
+import parser.Parser;
+import parser.Scanner;
+import parser.TokenStream;
+import source.ErrorHandler;
+import source.Errors;
+import source.Source;
+import tree.CodeGenerator;
+import tree.DeclNode;
+import tree.Procedures;
+import tree.StaticChecker;
+
+/**
+ * class BenchSupport - compiles PL0 programs for the benchmarks.
+ * All compiler and machine output is discarded.
+ */
+public class BenchSupport {
+
+    /** Output stream that discards everything written to it */
+    public static final PrintStream NULL_OUT = 
+        new PrintStream( new OutputStream() {
+            @Override
+            public void write( int b ) {
+            }
+            @Override
+            public void write( byte[] b, int off, int len ) {
+            }
+        } );
+
+    /** Write the program text to a temporary file.
+     * @return name of the file */
+    public static String writeProgram( String name, String text ) 
+            throws IOException {
+        File file = File.createTempFile( name, PL0_RD.SourceSuffix );
+        file.deleteOnExit();
+        FileWriter out = new FileWriter( file );
+        try {
+            out.write( text );
+        } finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+    /** @return a new error handler for the source file, discarding output */
+    public static Errors newErrors( Source src ) {
+        return new ErrorHandler( NULL_OUT, src, false );
+    }
+    /** Parse the program in file srcFile.
+     * @return the (unchecked) tree of the program
+     * @throws IllegalArgumentException if the program has syntax errors
+     */
+    public static DeclNode.ProgramNode parse( String srcFile ) 
+            throws Exception {
+        Source src = new Source( srcFile );
+        Errors errors = newErrors( src );
+        LexicalToken.setSource( src );
+        Parser parser = new Parser( new TokenStream( new Scanner( src ) ) );
+        DeclNode.ProgramNode tree = parser.parse();
+        src.close();
+        if( errors.hadErrors() || tree == null ) {
+            throw new IllegalArgumentException( "Syntax errors in " + srcFile );
+        }
+        return tree;
+    }
+    /** Parse, check and generate code for the program in file srcFile.
+     * @return generated code for the procedures
+     * @throws IllegalArgumentException if the program has errors
+     */
+    public static Procedures compile( String srcFile ) throws Exception {
+        DeclNode.ProgramNode tree = parse( srcFile );
+        Errors errors = newErrors( null );
+        new StaticChecker( errors ).visitProgramNode( tree );
+        if( errors.hadErrors() ) {
+            throw new IllegalArgumentException( "Semantic errors in " + srcFile );
+        }
+        return new CodeGenerator( errors ).generateCode( tree );
+    }
+    /** @return the names of the PL0 programs in directory dir that
+     * compile without errors, in alphabetical order */
+    public static List<String> corpus( String dir ) {
+        String[] names = new File( dir ).list();
+        if( names == null ) {
+            throw new IllegalArgumentException( "No directory " + dir );
+        }
+        Arrays.sort( names );
+        List<String> files = new ArrayList<String>();
+        for( String name : names ) {
+            if( !name.endsWith( PL0_RD.SourceSuffix ) ) {
+                continue;
+            }
+            String file = new File( dir, name ).getPath();
+            try {
+                compile( file );
+                files.add( file );
+            } catch( Exception e ) {
+                /* Programs with errors are not part of the corpus */
+            }
+        }
+        return files;
+    }
+    /** @return whether the program in file srcFile contains a read, 
+     * so that it cannot be run without input */
+    public static boolean readsInput( String srcFile ) throws IOException {
+        BufferedReader in = new BufferedReader( new FileReader( srcFile ) );
+        try {
+            String line;
+            while( (line = in.readLine()) != null ) {
+                if( line.matches( ".*\\bread\\b.*" ) ) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package pl0;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import machine.StackMachine;
+import source.Errors;
+import tree.CodeGenerator;
+import tree.DeclNode;
+import tree.Procedures;
+import tree.StaticChecker;
+
+/**
+ * class CaseDispatchBenchmark - time taken to generate code for and to
+ * run a case statement, for dense, sparse and clustered sets of labels
+ * (see CaseProgram). The code generator picks a jump table, a tree of
+ * comparisons or a mixture of both according to the density of the
+ * labels. The labels parameter is the kind of label set followed by
+ * the number of labels, e.g. "sparse-64".
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class CaseDispatchBenchmark {
+
+    @Param( { "dense-16", "dense-128", "sparse-16", "sparse-128",
+        "clustered-16", "clustered-128" } )
+    public String labels;
+
+    /** Error handler for the stages after parsing */
+    private Errors errors;
+    /** Statically checked tree of the program (for code generation) */
+    private DeclNode.ProgramNode checked;
+    /** Generated code of the program */
+    private Procedures code;
+    /** Loaded machine for the run - loaded for each invocation */
+    private StackMachine machine;
+
+    @Setup( Level.Trial )
+    public void prepare() throws Exception {
+        int dash = labels.indexOf( '-' );
+        String file = BenchSupport.writeProgram( labels,
+                CaseProgram.generate( labels.substring( 0, dash ),
+                    Integer.parseInt( labels.substring( dash + 1 ) ) ) );
+        errors = BenchSupport.newErrors( null );
+        checked = BenchSupport.parse( file );
+        new StaticChecker( errors ).visitProgramNode( checked );
+        code = BenchSupport.compile( file );
+    }
+    @Setup( Level.Invocation )
+    public void prepareInvocation() {
+        machine = new StackMachine( errors, BenchSupport.NULL_OUT, false,
+                code );
+    }
+
+    /** Code generation for the checked tree */
+    @Benchmark
+    public Procedures codeGen() {
+        return new CodeGenerator( errors ).generateCode( checked );
+    }
+    /** Running the loaded program */
+    @Benchmark
+    public void run() {
+        machine.setTracing( StackMachine.TRACE_NONE );
+        machine.run();
+    }
+}
@@ -0,0 +1,80 @@
+package pl0;
+
+/**
+ * class CaseProgram - generates PL0 programs for the case dispatch
+ * benchmarks. The program has a procedure containing a single case
+ * statement with the given number of labels, and a main program that
+ * calls it with each label and with each label plus one (which usually
+ * selects the default case) a fixed number of times.
+ * The labels are spaced according to the kind of label set:
+ * "dense" labels are consecutive, "sparse" labels are 1009 apart and
+ * "clustered" labels are in groups of eight consecutive values, with
+ * the groups 1000 apart.
+ */
+public class CaseProgram {
+    /** Number of times the main program calls the procedure with 
+     * each selector value */
+    private static final int REPEATS = 10;
+
+    /** @return the PL0 expression for label number k of the label set */
+    private static String label( String kind, String k ) {
+        if( kind.equals( "dense" ) ) {
+            return k;
+        } else if( kind.equals( "sparse" ) ) {
+            return k + " * 1009";
+        } else if( kind.equals( "clustered" ) ) {
+            return "(" + k + " / 8) * 1000 + " + k + " - (" + k + " / 8) * 8";
+        }
+        throw new IllegalArgumentException( "Unknown label set " + kind );
+    }
+    /** @return the value of label number k of the label set */
+    private static int labelValue( String kind, int k ) {
+        if( kind.equals( "dense" ) ) {
+            return k;
+        } else if( kind.equals( "sparse" ) ) {
+            return k * 1009;
+        } else if( kind.equals( "clustered" ) ) {
+            return (k / 8) * 1000 + k % 8;
+        }
+        throw new IllegalArgumentException( "Unknown label set " + kind );
+    }
+    /** @return the text of a program with a case statement with the 
+     * given number of labels of the given kind */
+    public static String generate( String kind, int labels ) {
+        StringBuilder text = new StringBuilder();
+        text.append( "var total: int;\n" );
+        text.append( "    x: int;\n" );
+        text.append( "    k: int;\n" );
+        text.append( "    i: int;\n" );
+        text.append( "procedure p() =\n" );
+        text.append( "  begin\n" );
+        text.append( "    case x of\n" );
+        for( int k = 0; k < labels; k++ ) {
+            text.append( "    when " ).append( labelValue( kind, k ) )
+                .append( ": total := total + " ).append( k ).append( "\n" );
+        }
+        text.append( "    default total := total - 1\n" );
+        text.append( "    end\n" );
+        text.append( "  end;\n" );
+        text.append( "begin\n" );
+        text.append( "  total := 0;\n" );
+        text.append( "  i := 0;\n" );
+        text.append( "  while i < " ).append( REPEATS ).append( " do\n" );
+        text.append( "    begin\n" );
+        text.append( "      k := 0;\n" );
+        text.append( "      while k < " ).append( labels ).append( " do\n" );
+        text.append( "        begin\n" );
+        text.append( "          x := " ).append( label( kind, "k" ) )
+            .append( ";\n" );
+        text.append( "          call p();\n" );
+        text.append( "          x := x + 1;\n" );
+        text.append( "          call p();\n" );
+        text.append( "          k := k + 1\n" );
+        text.append( "        end;\n" );
+        text.append( "      i := i + 1\n" );
+        text.append( "    end;\n" );
+        text.append( "  write total\n" );
+        text.append( "end\n" );
+        return text.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package pl0;
+
+/**
+ * class SyntheticProgram - generates PL0 programs of a given size for
+ * the benchmarks. The program has the given number of procedures, each
+ * with local variables, arithmetic, an if statement, a short while loop
+ * and a call of the preceding procedure (in groups of ten, so that the
+ * call depth stays small). The main program calls every procedure a
+ * fixed number of times, so both the compile time and the run time
+ * grow linearly with the size.
+ */
+public class SyntheticProgram {
+    /** Number of times the main program calls each procedure */
+    private static final int REPEATS = 10;
+
+    /** @return the text of a program with the given number of procedures */
+    public static String generate( int procedures ) {
+        StringBuilder text = new StringBuilder();
+        text.append( "var total: int;\n" );
+        text.append( "    i: int;\n" );
+        for( int k = 0; k < procedures; k++ ) {
+            text.append( "procedure p" ).append( k ).append( "() =\n" );
+            text.append( "  var a: int;\n" );
+            text.append( "      b: int;\n" );
+            text.append( "  begin\n" );
+            text.append( "    a := total + " ).append( k ).append( ";\n" );
+            text.append( "    b := a * 3 - (a / 2) + (" ).append( k )
+                .append( " - i) * 2;\n" );
+            text.append( "    if b < 0 then\n" );
+            text.append( "      total := total - b\n" );
+            text.append( "    else\n" );
+            text.append( "      total := (total + b) / 2;\n" );
+            text.append( "    a := 5;\n" );
+            text.append( "    while 0 < a do\n" );
+            text.append( "      begin\n" );
+            text.append( "        total := total + a;\n" );
+            text.append( "        a := a - 1\n" );
+            text.append( "      end" );
+            if( k % 10 != 0 ) {
+                text.append( ";\n" );
+                text.append( "    call p" ).append( k - 1 ).append( "()" );
+            }
+            text.append( "\n  end;\n" );
+        }
+        text.append( "begin\n" );
+        text.append( "  total := 0;\n" );
+        text.append( "  i := 0;\n" );
+        text.append( "  while i < " ).append( REPEATS ).append( " do\n" );
+        text.append( "    begin\n" );
+        for( int k = 0; k < procedures; k++ ) {
+            text.append( "      call p" ).append( k ).append( "();\n" );
+        }
+        text.append( "      i := i + 1\n" );
+        text.append( "    end;\n" );
+        text.append( "  write total\n" );
+        text.append( "end\n" );
+        return text.toString();
+    }
+}
@@ -19,7 +19,7 @@ public class Instruction {
         machine.generateWord(op.ordinal(), op.toString() );
     }
     
-    /** LOAD_CON is the only instruction with a parameter */
+    /** LOAD_CON has the constant as its parameter */
     public static class LoadConInstruction extends Instruction {
         protected int value;
         
@@ -40,6 +40,33 @@ public class Instruction {
         }
     }
     
+    /** BR_TABLE is followed by the number of entries in its table and
+     * then the branch offsets, each relative to the end of the table.
+     */
+    public static class BranchTableInstruction extends Instruction {
+        private int[] offsets;
+
+        public BranchTableInstruction( int entries ) {
+            super( Operation.BR_TABLE );
+            this.offsets = new int[ entries ];
+        }
+        /** @return size of the instruction and its table in words */
+        public int getSize() {
+            return op.getSize() + 1 + offsets.length;
+        }
+        public void setOffset( int entry, int offset ) {
+            offsets[ entry ] = offset;
+        }
+        @Override
+        public void loadInstruction( StackMachine machine ) {
+            super.loadInstruction( machine );
+            machine.generateWord( offsets.length, "" );
+            for( int offset : offsets ) {
+                machine.generateWord( offset, "" );
+            }
+        }
+    }
+
     /** The addresses of procedures are resolved when the program is
      * loaded and the sizes of procedures are known.
      * The LOAD_CON is for the procedure address (eventually) and
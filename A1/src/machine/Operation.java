@@ -9,6 +9,7 @@ public enum Operation {
     NO_OP(),           /* Do nothing */
     BR,                /* Unconditional branch */
     BR_FALSE(),        /* Branch if false (0) */
+    BR_TABLE(),        /* Branch through following table indexed by top */
     COPY(),            /* Copy block of memory */
     /* Procedure call and return */
     CALL(),            /* Call */
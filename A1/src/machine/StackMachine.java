@@ -343,7 +343,7 @@ public class StackMachine {
                               "  Limit: " + limit + 
                               "  Opcode: " +
                               inst + " " );
-            if( inst == Operation.LOAD_CON ) {
+            if( inst == Operation.LOAD_CON || inst == Operation.BR_TABLE ) {
                 outStream.print( memory[pc] + " " );
             }
         }
@@ -370,6 +370,22 @@ public class StackMachine {
                 outStream.print("\n      Branch => " + pc);
             }
             break;
+        case BR_TABLE: /* The following word is the number of entries in
+                the table of branch offsets after it. Branch by the entry
+                indexed by the top value, relative to the end of the table,
+                or if the index is out of range continue after the table */
+            int index = pop();
+            int entries = memory[pc];
+            int tableEnd = pc + 1 + entries;
+            if (0 <= index && index < entries) {
+                pc = tableEnd + memory[pc + 1 + index];
+            } else {
+                pc = tableEnd;
+            }
+            if (tracing.contains(Trace.JUMPS)) {
+                outStream.print("\n      Branch => " + pc);
+            }
+            break;
         case COPY: /* Copy top-of-stack words from third-top-of-stack address 
                       to second-top-of-stack address */
             int copySize = pop();
@@ -15,17 +15,40 @@ import syms.Type;
  */
 
 public class Code {
+    /** A symbolic branch target within a code sequence. Branches to a
+     * label may be generated before the label is placed; their offsets
+     * are backpatched when it is placed.
+     */
+    public static class Label {
+        /** Address (in words) of the label within its code sequence,
+         * or -1 if it has not been placed yet. */
+        private int address;
+        /** Branches waiting for the label to be placed. Each is the
+         * index of the instruction holding the branch offset, the entry
+         * within it for a BR_TABLE (or -1 for a LOAD_CON) and the address
+         * the offset is relative to. */
+        private List<int[]> fixups;
+
+        public Label() {
+            address = -1;
+            fixups = new ArrayList<int[]>();
+        }
+    }
+
     /** List of instructions generated */
     private List<Instruction> code;
     /** Size of the instructions in words.
      * This is not just the length of the list. */
     private int size;
+    /** Number of branches to labels not yet placed */
+    private int unresolved;
 
     /** Code array is initially empty */
     public Code() {
         super();
         code = new ArrayList<Instruction>();
         size = 0;
+        unresolved = 0;
     }
     public List<Instruction> getInstructionList() {
         return code;
@@ -40,6 +63,9 @@ public class Code {
      * @param newCode sequence to be appended
      */
     public void append( Code newCode ) {
+        if( newCode.unresolved != 0 ) {
+            throw new Error( "Code append with branches to unplaced labels" );
+        }
         code.addAll( newCode.code );
         size += newCode.size();
     }
@@ -171,6 +197,70 @@ public class Code {
             generateOp( Operation.LOAD_ABS );
         }
     }
+    /** Place label at the current location and backpatch the branches
+     * already generated to it.
+     * @requires label has not already been placed and all branches to
+     *  it are in this code sequence
+     */
+    public void placeLabel( Label label ) {
+        label.address = size;
+        for( int[] fixup : label.fixups ) {
+            patchOffset( fixup[0], fixup[1], size - fixup[2] );
+        }
+        unresolved -= label.fixups.size();
+        label.fixups.clear();
+    }
+    /** Set the offset of a branch to label, relative to address base,
+     * or record it to be patched when the label is placed.
+     * @param position index of the instruction holding the offset
+     * @param entry within a BR_TABLE, or -1 for a LOAD_CON
+     */
+    private void resolve( Label label, int position, int entry, int base ) {
+        if( label.address < 0 ) {
+            label.fixups.add( new int[] { position, entry, base } );
+            unresolved++;
+        } else {
+            patchOffset( position, entry, label.address - base );
+        }
+    }
+    private void patchOffset( int position, int entry, int offset ) {
+        if( entry < 0 ) {
+            updateLoadCon( position, offset );
+        } else {
+            ((Instruction.BranchTableInstruction)code.get( position ))
+                .setOffset( entry, offset );
+        }
+    }
+    /** Generate a branch to label. If the label has not been placed
+     * yet, the branch offset is patched when it is. */
+    private void genBranch( Label label, Operation branch ) {
+        int position = genLoadConstant( 0 );
+        generateOp( branch );
+        resolve( label, position, -1, size );
+    }
+    /** Generate a JumpIfFalse to label. */
+    public void genJumpIfFalse( Label label ) {
+        genBranch( label, Operation.BR_FALSE );
+    }
+    /** Generate an unconditional branch to label. */
+    public void genJumpAlways( Label label ) {
+        genBranch( label, Operation.BR );
+    }
+    /** Generate a BR_TABLE instruction with a table branching to each
+     * of the targets in turn. The index into the table is on the top
+     * of the stack; execution continues after the table if it is out
+     * of range.
+     */
+    public void genBranchTable( List<Label> targets ) {
+        Instruction.BranchTableInstruction table =
+            new Instruction.BranchTableInstruction( targets.size() );
+        int position = code.size();
+        code.add( table );
+        size += table.getSize();
+        for( int entry = 0; entry < targets.size(); entry++ ) {
+            resolve( targets.get( entry ), position, entry, size );
+        }
+    }
     /** Size of instructions implementing jump_if_false */ 
     static final int SIZE_JUMP_IF_FALSE = 
             Operation.BR_FALSE.getSize() + Operation.LOAD_CON.getSize();
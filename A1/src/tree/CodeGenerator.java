@@ -1,9 +1,10 @@
 package tree;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.HashMap;
 import java.util.Stack;
 
@@ -31,10 +32,6 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     /** Track the tree node currently being checked (for debugging) */
     private Stack<String> nodeStack;
 
-    // The maximum branch values
-    private int maxBranchValue = 10000;
-    private int minBranchValue = -10000;
-
     public CodeGenerator(Errors errors) {
         super();
         this.errors = errors;
@@ -115,214 +112,123 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         return code;
     }
 
-    /**
-     * Gets the size of the code for the case statement
-     */
-    private int getCaseCodeSize(StatementNode.CaseStatementNode node) {
-        Code caseCode = new Code();
-
-        for (Map.Entry<ConstExp, StatementNode> s : node.getCases().entrySet()) {
-
-            caseCode.append(genCodeForCase(s.getValue(), 0));
-        }
-
-        return caseCode.size();
-
-    }
-
-    private Code genCodeForCase(StatementNode n, int jumpLoc) {
-        Code code = new Code();
-
-        code.append(n.genCode(this));
-        code.genJumpAlways(jumpLoc);
-
-        return code;
-    }
-
-    private int getDefaultCodeSize(StatementNode.CaseStatementNode node) {
-
-        if (node.getDefaultCase() == null) {
-            Code code = new Code();
-            code.genLoadConstant(1);
-            code.generateOp(Operation.STOP);
-            return code.size();
-        }
-
-        return node.getDefaultCase().genCode(this).size();
-    }
-
-    private int getLabelMin(StatementNode.CaseStatementNode node) {
-        Set<ConstExp> labels = node.getCases().keySet();
-        int min = maxBranchValue;
-
-        if (labels.size() > 0) {
-
-            min = ((ConstExp) labels.toArray()[0]).getValue();
+    /** Minimum proportion of the values in the range of a jump table
+     * that must be labels */
+    private static final double MIN_TABLE_DENSITY = 0.5;
+    /** Minimum number of labels dispatched through a jump table */
+    private static final int MIN_TABLE_LABELS = 3;
 
-            for (ConstExp l : labels) {
-                if (l.getValue() < min) {
-                    min = l.getValue();
-                }
+    /** Generate code for a case statement in a single pass. The
+     * selector is evaluated once and dispatched to the code for each
+     * case according to the density of the labels: dense clusters of
+     * labels branch through a jump table (BR_TABLE), and the clusters
+     * and any isolated labels are chosen between by a balanced tree of
+     * comparisons, which keeps the selector on the stack until it is
+     * needed for the last time.
+     */
+    public Code visitCaseStatementNode(StatementNode.CaseStatementNode node) {
+        beginGen( "CaseStatement" );
+        Code code = node.getCondition().genCode( this );
+        List<ConstExp> labels = node.getLabels();
+        /* Reached with the selector consumed */
+        Code.Label defaultCase = new Code.Label();
+        Code.Label end = new Code.Label();
+        if( labels.isEmpty() ) {
+            code.generateOp( Operation.POP );
+        } else {
+            Map<Integer, Code.Label> targets = new HashMap<Integer, Code.Label>();
+            int[] values = new int[ labels.size() ];
+            for( int i = 0; i < values.length; i++ ) {
+                values[i] = labels.get(i).getValue();
+                targets.put( values[i], new Code.Label() );
+            }
+            Arrays.sort( values );
+            List<int[]> clusters = caseClusters( values );
+            genCaseDispatch( code, values, clusters, 0, clusters.size(),
+                    targets, defaultCase );
+            /* Code for each case, branching to the end when done */
+            HashMap<ConstExp, StatementNode> cases = node.getCases();
+            for( ConstExp label : labels ) {
+                code.placeLabel( targets.get( label.getValue() ) );
+                code.append( cases.get( label ).genCode( this ) );
+                code.genJumpAlways( end );
             }
         }
-
-        return min;
+        code.placeLabel( defaultCase );
+        if( node.getDefaultCase() == null ) {
+            code.genLoadConstant( StackMachine.CASE_LABEL_MISSING );
+            code.generateOp( Operation.STOP );
+        } else {
+            code.append( node.getDefaultCase().genCode( this ) );
+        }
+        code.placeLabel( end );
+        endGen( "CaseStatement" );
+        return code;
     }
-
-    private int getLabelMax(StatementNode.CaseStatementNode node) {
-        // Get min and max of tokens
-        Set<ConstExp> labels = node.getCases().keySet();
-        int max = minBranchValue;
-
-        if (labels.size() > 0) {
-
-            max = ((ConstExp) labels.toArray()[0]).getValue();
-
-            for (ConstExp l : labels) {
-                if (l.getValue() > max) {
-                    max = l.getValue();
+    /** Divide the sorted label values into clusters to be dispatched
+     * together. Each cluster is the longest run of labels from its first
+     * that is dense enough for a jump table, or a single label if there
+     * is no such run of at least MIN_TABLE_LABELS labels.
+     * @return the clusters as the indices of their first and last labels
+     */
+    private List<int[]> caseClusters( int[] values ) {
+        List<int[]> clusters = new ArrayList<int[]>();
+        int first = 0;
+        while( first < values.length ) {
+            int last = first;
+            for( int i = first + MIN_TABLE_LABELS - 1; i < values.length; i++ ) {
+                long range = (long)values[i] - values[first] + 1;
+                if( i - first + 1 >= MIN_TABLE_DENSITY * range ) {
+                    last = i;
                 }
             }
+            clusters.add( new int[] { first, last } );
+            first = last + 1;
         }
-
-        return max;
+        return clusters;
     }
-
-    private int getSizeOfJmpInto(StatementNode.CaseStatementNode node) {
-        // Parse the condition and push onto the stack
-        ExpNode cond = node.getCondition();
-        int jumpListEntrySize = 3;
-
-        Code code = new Code();
-        code.append(cond.genCode(this));
-
-        // Subtract 1, so it jumps into the table correctly
-        code.genLoadConstant(-1);
-        code.generateOp(Operation.ADD);
-
-        code.genLoadConstant(jumpListEntrySize);
-
-        // Multipy the condition by the size to get where to jump to
-        code.generateOp(Operation.MPY);
-
-        // Branch to that location
-        code.generateOp(Operation.BR);
-
-        return code.size();
-    }
-
-
-    // TODO: Handle default case
-    public Code visitCaseStatementNode(StatementNode.CaseStatementNode node) {
-        beginGen( "CaseStatement" );
-
-        Code code = new Code();
-
-        ExpNode cond = node.getCondition();
-
-        // code.append(cond.genCode(this));
-        // code.generateOp(Operation.WRITE);
-        
-        // Push the size of each jump table entry
-        // size = size(load_con) + size(br_always) = 2 + 1
-        int jumpListEntrySize = 3;
-
-        int max = getLabelMax(node);
-        int min = getLabelMin(node);
-
-        int totalSize = getCaseCodeSize(node);
-        int totalJumpListSize;
-        
-        // If there are no cases
-        if (min == maxBranchValue && max == minBranchValue) {
-            totalJumpListSize = 0;
-        } else {
-            totalJumpListSize = jumpListEntrySize * (max - min + 1);
-        }
-
-        // Check if it is within the bounds of the jump table
-        Code tempCode = new Code();
-        tempCode.append(cond.genCode(this));
-        tempCode.genLoadConstant(max);
-        tempCode.generateOp(Operation.LESSEQ);
-        // Jump all the code (excluding the default case)
-        // TODO: Code offset is wrong
-        tempCode.genJumpIfFalse(totalJumpListSize + totalSize + getSizeOfJmpInto(node));
-
-        // Check the min
-        code.genLoadConstant(min);
-        code.append(cond.genCode(this));
-        code.generateOp(Operation.LESSEQ);
-        // Jump all the code (excluding the default case)
-        code.genJumpIfFalse(totalJumpListSize + totalSize + tempCode.size() + getSizeOfJmpInto(node));
-
-        // Append the tempCode
-        // The order will be max check then min check
-        code.append(tempCode);
-        
-        code.append(cond.genCode(this));
-
-        // Subtract the min, so it jumps into the table correctly
-        code.genLoadConstant(-min);
-        code.generateOp(Operation.ADD);
-
-        code.genLoadConstant(jumpListEntrySize);
-
-        // Multipy the condition by the size to get where to jump to
-        code.generateOp(Operation.MPY);
-        // code.generateOp(Operation.WRITE);
-
-        // Branch to that location
-        code.generateOp(Operation.BR);
-
-
-        // TODO: If default case, add size
-        // because we want to jump right to the end
-        int defaultCaseSize = getDefaultCodeSize(node);
-
-        Code caseCode = new Code();
-        HashMap<Integer, Integer> sizeLookup = new HashMap<Integer, Integer>();
-
-        HashMap<ConstExp, StatementNode> cases = node.getCases();
-
-
-        for (ConstExp n : node.getLabels()) {
-            StatementNode sn = cases.get(n);
-
-            sizeLookup.put(n.getValue(), caseCode.size());
-            // Subtract 3 for the branch + loadcon
-            Code statementCode = sn.genCode(this);
-            // TODO: Check this
-            int sizeToEnd = totalSize - (caseCode.size() + statementCode.size() + 3);
-
-            // Generate the code
-            caseCode.append(genCodeForCase(sn, sizeToEnd + defaultCaseSize));
-        }
-
-        // Generate the jump list
-        for (int i = min; i <= max; i++) {
-            // The size of the remaining code
-            int jumpLength = jumpListEntrySize * (max - i);
-
-            // and add the size of the other code
-            // If its not valid, jump to the end, or default
-            jumpLength += (sizeLookup.getOrDefault(i, totalSize));
-
-            code.genJumpAlways(jumpLength); 
+    /** Generate the dispatch on the selector (on top of the stack) to
+     * the labels in clusters lo to hi - 1, branching to defaultCase if
+     * it matches none of them. The selector is consumed on every path.
+     */
+    private void genCaseDispatch( Code code, int[] values,
+            List<int[]> clusters, int lo, int hi,
+            Map<Integer, Code.Label> targets, Code.Label defaultCase ) {
+        if( hi - lo > 1 ) {
+            /* Compare against the first label of the middle cluster */
+            int mid = (lo + hi) / 2;
+            Code.Label upper = new Code.Label();
+            code.generateOp( Operation.DUP );
+            code.genLoadConstant( values[ clusters.get( mid )[0] ] );
+            code.generateOp( Operation.LESS );
+            code.genJumpIfFalse( upper );
+            genCaseDispatch( code, values, clusters, lo, mid, targets,
+                    defaultCase );
+            code.placeLabel( upper );
+            genCaseDispatch( code, values, clusters, mid, hi, targets,
+                    defaultCase );
+            return;
         }
-
-        code.append(caseCode);
-        
-
-        if (node.getDefaultCase() == null) {
-            code.genLoadConstant(1);
-            code.generateOp(Operation.STOP);
+        int min = values[ clusters.get( lo )[0] ];
+        int max = values[ clusters.get( lo )[1] ];
+        if( min == max ) {
+            code.genLoadConstant( min );
+            code.generateOp( Operation.EQUAL );
+            code.genJumpIfFalse( defaultCase );
+            code.genJumpAlways( targets.get( min ) );
         } else {
-            code.append(node.getDefaultCase().genCode(this));
+            /* Index the table by selector - min; values without a label
+             * and those out of range go to the default case */
+            code.genLoadConstant( -min );
+            code.generateOp( Operation.ADD );
+            List<Code.Label> table = new ArrayList<Code.Label>();
+            for( long value = min; value <= max; value++ ) {
+                Code.Label target = targets.get( (int)value );
+                table.add( target == null ? defaultCase : target );
+            }
+            code.genBranchTable( table );
+            code.genJumpAlways( defaultCase );
         }
-
-        endGen( "CaseStatement" );
-        return code;
     }
 
     public Code visitMultiAssignNode(StatementNode.MultiAssignNode node) {
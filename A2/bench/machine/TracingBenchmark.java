@@ -0,0 +1,134 @@
+package machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl0.BenchSupport;
+import source.Errors;
+import source.Source;
+import tree.Procedures;
+
+/**
+ * class TracingBenchmark - cost of the tracing checks in the interpreter.
+ * Runs a recursive factorial program in the style of test-base5-fact.pl0
+ * with tracing turned off, using the traced interpreter (as every run 
+ * did before the untraced interpreter was split out) and the untraced 
+ * interpreters chosen by setTracing( TRACE_NONE ), the latter also with
+ * the machine memory off the Java heap.
+ * The "instructions" secondary result is the number of stack machine
+ * instructions executed per second; its inverse is the time per
+ * instruction.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class TracingBenchmark {
+
+    /** Factorial of n by recursion through a non-local variable,
+     * repeated so that each run executes a few million instructions */
+    static final String FACT =
+        "var n: int;\n" +
+        "    f: int;\n" +
+        "    i: int;\n" +
+        "procedure fact() =\n" +
+        "  begin\n" +
+        "    if n = 0 then\n" +
+        "      f := 1\n" +
+        "    else\n" +
+        "      begin\n" +
+        "        n := n - 1;\n" +
+        "        call fact();\n" +
+        "        n := n + 1;\n" +
+        "        f := f * n\n" +
+        "      end\n" +
+        "  end;\n" +
+        "begin\n" +
+        "  i := 0;\n" +
+        "  while i < 1000 do\n" +
+        "    begin\n" +
+        "      n := 100;\n" +
+        "      call fact();\n" +
+        "      i := i + 1\n" +
+        "    end;\n" +
+        "  write f\n" +
+        "end\n";
+
+    /** Count of instructions executed, reported by JMH as a rate */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class Counters {
+        public long instructions;
+
+        @Setup( Level.Iteration )
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    private Procedures code;
+    private Errors errors;
+
+    @Setup
+    public void compile() throws Exception {
+        String file = BenchSupport.writeProgram( "fact", FACT );
+        code = BenchSupport.compile( file );
+        errors = BenchSupport.newErrors( new Source( file ) );
+    }
+
+    private StackMachine newMachine() {
+        return newMachine( false );
+    }
+    private StackMachine newMachine( boolean offHeap ) {
+        StackMachine machine = new StackMachine( errors, BenchSupport.NULL_OUT,
+                false, code, offHeap );
+        machine.setTracing( StackMachine.TRACE_NONE );
+        return machine;
+    }
+
+    @Benchmark
+    public long traced( Counters counters ) {
+        StackMachine machine = newMachine();
+        machine.runTraced();
+        counters.instructions += machine.getInstructionCount();
+        return machine.getInstructionCount();
+    }
+
+    @Benchmark
+    public long untraced( Counters counters ) {
+        StackMachine machine = newMachine();
+        machine.run();
+        counters.instructions += machine.getInstructionCount();
+        return machine.getInstructionCount();
+    }
+
+    @Benchmark
+    public long untracedCached( Counters counters ) {
+        StackMachine machine = newMachine();
+        machine.runCached();
+        counters.instructions += machine.getInstructionCount();
+        return machine.getInstructionCount();
+    }
+
+    @Benchmark
+    public long untracedOffHeap( Counters counters ) {
+        StackMachine machine = newMachine( true );
+        machine.run();
+        counters.instructions += machine.getInstructionCount();
+        return machine.getInstructionCount();
+    }
+}
@@ -0,0 +1,72 @@
+package pl0;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import source.Errors;
+import tree.CodeGenerator;
+import tree.DeclNode;
+import tree.Procedures;
+import tree.StaticChecker;
+
+/**
+ * class NestedCodeGenBenchmark - compile time for deeply nested programs
+ * (see NestedProgram), where the cost of combining the code of nested
+ * statements and expressions dominates. The program parameter is the
+ * kind of nesting followed by the depth, e.g. "while-500". Much deeper
+ * programs overflow the default thread stack in the recursive visitors.
+ * The code is generated but not loaded, as the deeper programs do not 
+ * fit in the machine's memory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class NestedCodeGenBenchmark {
+
+    @Param( { "if-100", "if-500", "while-100", "while-500", 
+        "exp-100", "exp-500" } )
+    public String program;
+
+    /** Error handler for code generation */
+    private Errors errors;
+    /** Source file of the program */
+    private String file;
+    /** Statically checked tree of the program (for code generation) */
+    private DeclNode.ProgramNode checked;
+
+    @Setup
+    public void prepare() throws Exception {
+        int dash = program.indexOf( '-' );
+        file = BenchSupport.writeProgram( program,
+                NestedProgram.generate( program.substring( 0, dash ),
+                    Integer.parseInt( program.substring( dash + 1 ) ) ) );
+        errors = BenchSupport.newErrors( null );
+        checked = BenchSupport.parse( file );
+        new StaticChecker( errors ).visitProgramNode( checked );
+    }
+
+    /** Code generation for the checked tree */
+    @Benchmark
+    public Procedures codeGen() {
+        return new CodeGenerator( errors ).generateCode( checked );
+    }
+    /** Parsing, static checking and code generation */
+    @Benchmark
+    public Procedures compile() throws Exception {
+        return BenchSupport.compile( file );
+    }
+}
@@ -0,0 +1,56 @@
+package pl0;
+
+/**
+ * class NestedProgram - generates deeply nested PL0 programs for the
+ * code generation benchmarks. The kind of nesting is one of:
+ * "if", if statements nested within the then part of each other;
+ * "while", while loops nested within the body of each other; and
+ * "exp", an expression with operators nested to the given depth.
+ * Every level contains an assignment so that each contributes code.
+ */
+public class NestedProgram {
+
+    /** @return the text of a program nested to the given depth */
+    public static String generate( String kind, int depth ) {
+        StringBuilder text = new StringBuilder();
+        text.append( "var x: int;\n" );
+        text.append( "    y: int;\n" );
+        text.append( "begin\n" );
+        text.append( "  x := 0;\n" );
+        text.append( "  y := 1;\n" );
+        if( kind.equals( "if" ) ) {
+            for( int k = 0; k < depth; k++ ) {
+                text.append( "  if x < " ).append( k + 1 )
+                    .append( " then begin x := x + y;\n" );
+            }
+            text.append( "  write x\n" );
+            for( int k = 0; k < depth; k++ ) {
+                text.append( "  end else x := x - 1\n" );
+            }
+        } else if( kind.equals( "while" ) ) {
+            for( int k = 0; k < depth; k++ ) {
+                text.append( "  while x < " ).append( k + 1 )
+                    .append( " do begin x := x + y;\n" );
+            }
+            text.append( "  write x\n" );
+            for( int k = 0; k < depth; k++ ) {
+                text.append( "  end\n" );
+            }
+        } else if( kind.equals( "exp" ) ) {
+            text.append( "  x := " );
+            for( int k = 0; k < depth; k++ ) {
+                text.append( "(" );
+            }
+            text.append( "x" );
+            for( int k = 0; k < depth; k++ ) {
+                text.append( k % 2 == 0 ? " + y)" : " * " + k + ")" );
+            }
+            text.append( ";\n" );
+            text.append( "  write x\n" );
+        } else {
+            throw new IllegalArgumentException( "Unknown nesting " + kind );
+        }
+        text.append( "end\n" );
+        return text.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package pl0;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.ComplexSymbolFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import machine.StackMachine;
+import parser.CUPParser;
+import parser.CUPToken;
+import source.Errors;
+import source.Source;
+import tree.CodeGenerator;
+import tree.DeclNode;
+import tree.Procedures;
+import tree.StaticChecker;
+
+/**
+ * class PipelineBenchmark - time taken by each stage of the compiler and
+ * stack machine: lexical analysis, parsing, static checking, code 
+ * generation, loading the code into the machine and running it.
+ * Each stage is measured separately on inputs prepared by the earlier
+ * stages during setup.
+ * The program parameter is either "synthetic-N", a program generated by
+ * SyntheticProgram with N procedures, or "corpus", all the programs in
+ * the test-pgm directory (or the directory named by the pl0.corpus 
+ * system property) that compile without errors. Programs that read 
+ * input are only excluded from the run stage.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PipelineBenchmark {
+
+    @Param( { "synthetic-10", "synthetic-50", "corpus" } )
+    public String program;
+
+    /** Error handler for the stages after parsing */
+    private Errors errors;
+    /** Source files of the programs */
+    private List<String> files;
+    /** Source files of the programs that can be run */
+    private List<String> runnable;
+    /** Statically checked trees of the programs (for code generation) */
+    private List<DeclNode.ProgramNode> checked;
+    /** Generated code of the programs (for loading) */
+    private List<Procedures> code;
+    /** Generated code of the runnable programs */
+    private List<Procedures> runnableCode;
+    /** Parsed trees for the static checker - rebuilt for each invocation
+     * as the static checker updates the tree */
+    private List<DeclNode.ProgramNode> parsed;
+    /** Loaded machines for the run stage - loaded for each invocation */
+    private List<StackMachine> machines;
+
+    @Setup( Level.Trial )
+    public void prepare() throws Exception {
+        files = new ArrayList<String>();
+        runnable = new ArrayList<String>();
+        if( program.startsWith( "synthetic-" ) ) {
+            int size = Integer.parseInt( program.substring( 10 ) );
+            files.add( BenchSupport.writeProgram( program,
+                    SyntheticProgram.generate( size ) ) );
+            runnable.addAll( files );
+        } else {
+            String dir = System.getProperty( "pl0.corpus", "test-pgm" );
+            for( String file : BenchSupport.corpus( dir ) ) {
+                files.add( file );
+                if( !BenchSupport.readsInput( file ) ) {
+                    runnable.add( file );
+                }
+            }
+        }
+        errors = BenchSupport.newErrors( null );
+        checked = new ArrayList<DeclNode.ProgramNode>();
+        code = new ArrayList<Procedures>();
+        for( String file : files ) {
+            DeclNode.ProgramNode tree = BenchSupport.parse( file );
+            new StaticChecker( errors ).visitProgramNode( tree );
+            checked.add( tree );
+            code.add( BenchSupport.compile( file ) );
+        }
+        runnableCode = new ArrayList<Procedures>();
+        for( String file : runnable ) {
+            runnableCode.add( BenchSupport.compile( file ) );
+        }
+    }
+    @Setup( Level.Invocation )
+    public void prepareInvocation() throws Exception {
+        parsed = new ArrayList<DeclNode.ProgramNode>();
+        for( String file : files ) {
+            parsed.add( BenchSupport.parse( file ) );
+        }
+        machines = new ArrayList<StackMachine>();
+        for( Procedures procs : runnableCode ) {
+            machines.add( new StackMachine( errors,
+                    BenchSupport.NULL_OUT, false, procs ) );
+        }
+    }
+
+    /** Lexical analysis only */
+    @Benchmark
+    public int lex() throws Exception {
+        int tokens = 0;
+        for( String file : files ) {
+            Source src = new Source( file );
+            BenchSupport.newErrors( src );
+            parser.Lexer lex = new parser.Lexer( src, 
+                    new ComplexSymbolFactory() );
+            while( lex.next_token().sym != CUPToken.EOF ) {
+                tokens++;
+            }
+            src.close();
+        }
+        return tokens;
+    }
+    /** Lexical analysis and parsing by the CUP generated parser */
+    @Benchmark
+    public void parse( Blackhole bh ) throws Exception {
+        for( String file : files ) {
+            Source src = new Source( file );
+            BenchSupport.newErrors( src );
+            ComplexSymbolFactory csf = new ComplexSymbolFactory();
+            CUPParser parser = new CUPParser( new parser.Lexer( src, csf ), csf );
+            bh.consume( parser.parse().value );
+            src.close();
+        }
+    }
+    /** Static checking of the parsed trees */
+    @Benchmark
+    public void staticCheck( Blackhole bh ) {
+        for( DeclNode.ProgramNode tree : parsed ) {
+            StaticChecker checker = new StaticChecker( errors );
+            checker.visitProgramNode( tree );
+            bh.consume( tree );
+        }
+    }
+    /** Code generation for the checked trees */
+    @Benchmark
+    public void codeGen( Blackhole bh ) {
+        for( DeclNode.ProgramNode tree : checked ) {
+            bh.consume( new CodeGenerator( errors )
+                    .generateCode( tree ) );
+        }
+    }
+    /** Loading the generated code into a stack machine */
+    @Benchmark
+    public void load( Blackhole bh ) {
+        for( Procedures procs : code ) {
+            bh.consume( new StackMachine( errors,
+                    BenchSupport.NULL_OUT, false, procs ) );
+        }
+    }
+    /** Running the loaded programs */
+    @Benchmark
+    public long run() {
+        long instructions = 0;
+        for( StackMachine machine : machines ) {
+            machine.setTracing( StackMachine.TRACE_NONE );
+            machine.run();
+            instructions += machine.getInstructionCount();
+        }
+        return instructions;
+    }
+}
@@ -0,0 +1,21 @@
+#!/bin/sh
+# Build and run the JMH benchmarks in bench.
+# JMH_HOME must name a directory containing the JMH jars: jmh-core, 
+# jmh-generator-annprocess and their dependencies (jopt-simple and
+# commons-math3). Any arguments are passed on to JMH, e.g. 
+#   ./run-bench.sh TracingBenchmark -f 1
+D=`pwd`
+if [ -z "$JMH_HOME" ]; then
+    echo "Set JMH_HOME to the directory containing the JMH jars"
+    exit 1
+fi
+CLASSPATH=$D/java-cup-11b.jar
+for jar in $JMH_HOME/*.jar
+do
+    CLASSPATH=$CLASSPATH:$jar
+done
+
+mkdir -p bench-bin
+javac -cp $CLASSPATH -g -d bench-bin -sourcepath src:bench \
+    `find src bench -name '*.java' ! -name '*Test.java'` || exit 1
+java -cp bench-bin:$CLASSPATH org.openjdk.jmh.Main "$@"
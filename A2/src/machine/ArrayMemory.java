@@ -0,0 +1,46 @@
+package machine;
+
+import java.util.Arrays;
+
+/**
+ * class ArrayMemory - block of memory held in an int array on the Java 
+ * heap. The array is visible within the package so that the top of stack
+ * caching engine can access it directly.
+ */
+final class ArrayMemory extends Memory {
+    /** Words of the block */
+    final int[] words;
+
+    ArrayMemory( int size, int fill ) {
+        words = new int[ size ];
+        Arrays.fill( words, fill );
+    }
+    int size() {
+        return words.length;
+    }
+    int get( int index ) {
+        return words[index];
+    }
+    void set( int index, int value ) {
+        words[index] = value;
+    }
+    void fill( int from, int to, int value ) {
+        Arrays.fill( words, from, to, value );
+    }
+    Memory allocate( int size, int fill ) {
+        return new ArrayMemory( size, fill );
+    }
+    @Override
+    void load( int index, int[] source, int count ) {
+        System.arraycopy( source, 0, words, index, count );
+    }
+    @Override
+    void copyTo( int from, Memory dest, int to, int count ) {
+        if( dest instanceof ArrayMemory ) {
+            System.arraycopy( words, from, ((ArrayMemory)dest).words, to, 
+                    count );
+        } else {
+            super.copyTo( from, dest, to, count );
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package machine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * class CodeVerifier - load time verification of the code of a procedure.
+ * The code is interpreted abstractly, following the branches, to find the
+ * depth of the stack (relative to the frame pointer) before each
+ * instruction. Code is malformed if an instruction would pop a word of
+ * the frame header (static link, dynamic link and return address) or
+ * below, if the depths on two paths to an instruction differ, if a branch
+ * leaves the procedure or enters the middle of an instruction, if
+ * control can fall off the end of the procedure, or if a count or the
+ * depth of the stack is larger than the data segment.
+ * The greatest depth of well formed code bounds the stack used by an
+ * activation of the procedure, so that a single check on entry replaces
+ * the checks on each push and pop.
+ * Branch offsets, and the counts of ALLOC_STACK, DEALLOC_STACK, LOAD_MULTI
+ * and STORE_MULTI, must be constants loaded by the preceding instruction;
+ * code containing a computed branch or count cannot be verified (but is
+ * not malformed).
+ */
+final class CodeVerifier {
+    /** Result of verify for code that cannot be verified */
+    static final int UNVERIFIABLE = -1;
+    /** Depth of the stack on entry to a procedure: the frame header */
+    static final int FRAME_HEADER = 3;
+
+    /** Exception thrown for malformed code */
+    static class MalformedCode extends Exception {
+        private static final long serialVersionUID = 1L;
+        /** Address of the offending instruction */
+        private final int address;
+
+        MalformedCode( int address, String message ) {
+            super( message );
+            this.address = address;
+        }
+        int getAddress() {
+            return address;
+        }
+    }
+    /** Thrown internally for code that cannot be verified */
+    private static class Unverifiable extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Operation[] operations = Operation.values();
+
+    private final Memory memory;
+    private final int base;
+    private final int start;
+    private final int finish;
+    /** Depth of the stack before each instruction, indexed by
+     * (address - start), or -1 if not (yet) known to be reachable */
+    private final int[] depths;
+    /** Whether the word on top of the stack before each instruction is
+     * the same known constant on all paths to it */
+    private final boolean[] known;
+    /** The constant on top of the stack, where known */
+    private final int[] constants;
+    /** Whether each word is the first word of an instruction */
+    private final boolean[] starts;
+    /** Instructions whose successors are still to be visited */
+    private final Deque<Integer> pending;
+    private int maxDepth;
+
+    private CodeVerifier( Memory memory, int base, int start, int finish ) {
+        this.memory = memory;
+        this.base = base;
+        this.start = start;
+        this.finish = finish;
+        this.depths = new int[ finish - start ];
+        this.known = new boolean[ finish - start ];
+        this.constants = new int[ finish - start ];
+        this.starts = new boolean[ finish - start ];
+        this.pending = new ArrayDeque<Integer>();
+        this.maxDepth = FRAME_HEADER;
+    }
+
+    /** Verify the code of a procedure.
+     * @param memory holding the code
+     * @param base address of the first word of memory
+     * @param start address of the entry point and first word of the code
+     * @param finish address one past the last word of the code
+     * @return the greatest depth of the stack relative to the frame
+     *  pointer during an activation of the procedure (not counting any
+     *  procedure it calls), or UNVERIFIABLE
+     * @throws MalformedCode if the code is malformed
+     */
+    static int verify( Memory memory, int base, int start, int finish )
+            throws MalformedCode {
+        CodeVerifier verifier = new CodeVerifier( memory, base, start, finish );
+        try {
+            verifier.run();
+        } catch( Unverifiable e ) {
+            return UNVERIFIABLE;
+        }
+        return verifier.maxDepth;
+    }
+
+    private int word( int address ) {
+        return memory.get( address - base );
+    }
+    /** Decode the instructions linearly, then follow the control flow
+     * from the entry point */
+    private void run() throws MalformedCode, Unverifiable {
+        if( start == finish ) {
+            throw new MalformedCode( start, "procedure has no code" );
+        }
+        for( int address = start; address < finish; ) {
+            int word = word( address );
+            if( word < 0 || operations.length <= word ) {
+                throw new MalformedCode( address, "invalid opcode " + word );
+            }
+            starts[address - start] = true;
+            address += operations[word].getSize();
+            if( address > finish ) {
+                throw new MalformedCode( address,
+                        "instruction extends past the end of the procedure" );
+            }
+        }
+        Arrays.fill( depths, -1 );
+        enter( start, start, FRAME_HEADER, false, 0 );
+        while( !pending.isEmpty() ) {
+            step( pending.pop() );
+        }
+    }
+    /** Record the state on a path from the instruction at 'from' to that
+     * at 'to', queueing the latter if its state has changed */
+    private void enter( int from, int to, int depth, boolean isConstant,
+            int constant ) throws MalformedCode {
+        if( to < start || finish <= to ) {
+            throw new MalformedCode( from, "branch to " + to +
+                    " outside the procedure" );
+        }
+        int i = to - start;
+        if( !starts[i] ) {
+            throw new MalformedCode( from, "branch to " + to +
+                    " within an instruction" );
+        }
+        if( depths[i] < 0 ) {
+            depths[i] = depth;
+            known[i] = isConstant;
+            constants[i] = constant;
+            pending.push( to );
+        } else if( depths[i] != depth ) {
+            throw new MalformedCode( to, "stack depth " + depths[i] +
+                    " on one path and " + depth + " on another" );
+        } else if( known[i] && (!isConstant || constants[i] != constant) ) {
+            known[i] = false;
+            pending.push( to );
+        }
+    }
+    /** Follow the successors of the instruction at address */
+    private void step( int address ) throws MalformedCode, Unverifiable {
+        int i = address - start;
+        int depth = depths[i];
+        Operation op = operations[word( address )];
+        int next = address + op.getSize();
+        /* Number of words popped and pushed */
+        long pops = 0;
+        long pushes = 0;
+        /* Whether control can continue to the next instruction */
+        boolean continues = true;
+        /* Whether the instruction branches, and to where */
+        boolean branches = false;
+        int target = 0;
+        /* Whether the word pushed is a known constant */
+        boolean isConstant = false;
+        int constant = 0;
+        switch( op ) {
+        case NO_OP:
+            break;
+        case BR:
+            pops = 1;
+            branches = true;
+            target = next + constantOperand( i );
+            continues = false;
+            break;
+        case BR_FALSE:
+            pops = 2;
+            branches = true;
+            target = next + constantOperand( i );
+            break;
+        case COPY:
+            pops = 3;
+            break;
+        case CALL:
+            /* The callee pops the static link along with its frame */
+            pops = 2;
+            break;
+        case RETURN:
+            continues = false;
+            break;
+        case ALLOC_STACK:
+            pops = 1;
+            pushes = count( i, op );
+            break;
+        case DEALLOC_STACK:
+            pops = 1 + count( i, op );
+            break;
+        case POP:
+            pops = 1;
+            break;
+        case DUP:
+            pops = 1;
+            pushes = 2;
+            isConstant = known[i];
+            constant = constants[i];
+            break;
+        case SWAP:
+            pops = 2;
+            pushes = 2;
+            break;
+        case ADD: case MPY: case DIV: case OR: case AND: case XOR:
+        case EQUAL: case LESS: case LESSEQ:
+            pops = 2;
+            pushes = 1;
+            break;
+        case NOT: case NEGATE: case TO_GLOBAL: case TO_LOCAL:
+        case LOAD_ABS: case LOAD_FRAME: case ALLOC_HEAP: case ADD_CON:
+        case BOUND_CON: case TO_LOCAL_CHECKED:
+            pops = 1;
+            pushes = 1;
+            break;
+        case READ:
+        case LOAD_LOCAL:
+        case LOAD_DISPLAY:
+        case REF_DISPLAY:
+            pushes = 1;
+            break;
+        case WRITE:
+        case STORE_LOCAL:
+        case STORE_DISPLAY:
+            pops = 1;
+            break;
+        case BOUND:
+            pops = 3;
+            pushes = 1;
+            break;
+        case LOAD_CON:
+            pushes = 1;
+            isConstant = true;
+            constant = word( address + 1 );
+            break;
+        case ZERO:
+        case ONE:
+            pushes = 1;
+            isConstant = true;
+            constant = op == Operation.ZERO ? 0 : 1;
+            break;
+        case STORE_FRAME:
+            pops = 2;
+            break;
+        case LOAD_MULTI:
+            pops = 2;
+            pushes = count( i, op );
+            break;
+        case STORE_MULTI:
+            pops = 2 + count( i, op );
+            break;
+        case BR_CON:
+            branches = true;
+            target = next + word( address + 1 );
+            continues = false;
+            break;
+        case BR_FALSE_CON:
+            pops = 1;
+            branches = true;
+            target = next + word( address + 1 );
+            break;
+        case STOP:
+            pops = 1;
+            continues = false;
+            break;
+        default:
+            throw new Error( "CodeVerifier: no case for " + op );
+        }
+        if( depth - pops < FRAME_HEADER ) {
+            throw new MalformedCode( address, op + " pops " + pops +
+                    " words with a stack depth of " + depth );
+        }
+        long newDepth = depth - pops + pushes;
+        if( newDepth > StackMachine.CODE_START ) {
+            throw new MalformedCode( address, op + " leaves a stack depth of " +
+                    newDepth + ", more than the data segment" );
+        }
+        maxDepth = Math.max( maxDepth, (int)newDepth );
+        if( branches ) {
+            enter( address, target, (int)newDepth, false, 0 );
+        }
+        if( continues ) {
+            if( next >= finish ) {
+                throw new MalformedCode( address,
+                        "control falls off the end of the procedure" );
+            }
+            enter( address, next, (int)newDepth, isConstant, constant );
+        }
+    }
+    /** @return the constant on top of the stack before instruction i */
+    private int constantOperand( int i ) throws Unverifiable {
+        if( !known[i] ) {
+            throw new Unverifiable();
+        }
+        return constants[i];
+    }
+    /** @return the constant count on top of the stack before
+     * instruction i (op), which must not be negative
+     * @throws MalformedCode if the count is larger than the data segment */
+    private int count( int i, Operation op )
+            throws Unverifiable, MalformedCode {
+        int count = constantOperand( i );
+        if( count < 0 ) {
+            throw new Unverifiable();
+        }
+        if( count > StackMachine.CODE_START ) {
+            throw new MalformedCode( start + i, op + " count " + count +
+                    " too large" );
+        }
+        return count;
+    }
+}
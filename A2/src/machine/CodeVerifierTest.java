@@ -0,0 +1,109 @@
+package machine;
+
+import junit.framework.TestCase;
+
+/**
+ * class CodeVerifierTest - Junit test of CodeVerifier class.
+ */
+public class CodeVerifierTest extends TestCase {
+
+    /** Address of the first word of the code */
+    private static final int START = 1000;
+
+    public CodeVerifierTest(String testName) {
+        super(testName);
+    }
+
+    /** Verify the given words as the code of a procedure at START */
+    private static int verify( int... words )
+            throws CodeVerifier.MalformedCode {
+        Memory memory = new ArrayMemory( words.length, 0 );
+        for( int i = 0; i < words.length; i++ ) {
+            memory.set( i, words[i] );
+        }
+        return CodeVerifier.verify( memory, START, START,
+                START + words.length );
+    }
+    private static int op( Operation op ) {
+        return op.ordinal();
+    }
+    private static void assertMalformed( int... words ) {
+        try {
+            verify( words );
+            fail( "Malformed code accepted" );
+        } catch( CodeVerifier.MalformedCode e ) {
+            // expected
+        }
+    }
+
+    public void testStraightLine() throws Exception {
+        /* 2 locals, then 1 + 2 written */
+        assertEquals( 7, verify( op( Operation.LOAD_CON ), 2,
+                op( Operation.ALLOC_STACK ), op( Operation.ONE ),
+                op( Operation.LOAD_CON ), 2, op( Operation.ADD ),
+                op( Operation.WRITE ), op( Operation.RETURN ) ) );
+    }
+
+    public void testBranches() throws Exception {
+        /* while true do write 1 */
+        assertEquals( 5, verify( op( Operation.ONE ),
+                op( Operation.LOAD_CON ), 5, op( Operation.BR_FALSE ),
+                op( Operation.ONE ), op( Operation.WRITE ),
+                op( Operation.LOAD_CON ), -9, op( Operation.BR ),
+                op( Operation.RETURN ) ) );
+    }
+
+    public void testComputedBranch() throws Exception {
+        assertEquals( CodeVerifier.UNVERIFIABLE, verify( op( Operation.READ ),
+                op( Operation.BR ), op( Operation.RETURN ) ) );
+    }
+
+    public void testUnderflow() {
+        assertMalformed( op( Operation.POP ), op( Operation.RETURN ) );
+        assertMalformed( op( Operation.ONE ), op( Operation.ADD ),
+                op( Operation.RETURN ) );
+    }
+
+    public void testInconsistentDepth() {
+        /* if true then push 1; the join has depths 3 and 4 */
+        assertMalformed( op( Operation.ONE ),
+                op( Operation.LOAD_CON ), 1, op( Operation.BR_FALSE ),
+                op( Operation.ONE ), op( Operation.RETURN ) );
+    }
+
+    public void testBadBranchTarget() {
+        /* Out of the procedure */
+        assertMalformed( op( Operation.LOAD_CON ), 10, op( Operation.BR ),
+                op( Operation.RETURN ) );
+        /* Into the operand of a LOAD_CON */
+        assertMalformed( op( Operation.LOAD_CON ), 0, op( Operation.BR ),
+                op( Operation.LOAD_CON ), 1, op( Operation.LOAD_CON ), -4,
+                op( Operation.BR ) );
+    }
+
+    public void testFallOffEnd() {
+        assertMalformed( op( Operation.ONE ), op( Operation.WRITE ) );
+    }
+
+    public void testLargeCount() {
+        /* Reported at the ALLOC_STACK, not after the depth overflows */
+        try {
+            verify( op( Operation.LOAD_CON ), Integer.MAX_VALUE,
+                    op( Operation.ALLOC_STACK ), op( Operation.RETURN ) );
+            fail( "Malformed code accepted" );
+        } catch( CodeVerifier.MalformedCode e ) {
+            assertEquals( START + 2, e.getAddress() );
+            assertTrue( e.getMessage().contains( "too large" ) );
+        }
+        assertMalformed( op( Operation.LOAD_CON ), Integer.MAX_VALUE,
+                op( Operation.DEALLOC_STACK ), op( Operation.RETURN ) );
+        assertMalformed( op( Operation.ZERO ), op( Operation.LOAD_CON ),
+                Integer.MAX_VALUE, op( Operation.LOAD_MULTI ),
+                op( Operation.RETURN ) );
+        /* Counts that fit, but together exceed the data segment */
+        int half = StackMachine.CODE_START / 2 + 1;
+        assertMalformed( op( Operation.LOAD_CON ), half,
+                op( Operation.ALLOC_STACK ), op( Operation.LOAD_CON ), half,
+                op( Operation.ALLOC_STACK ), op( Operation.RETURN ) );
+    }
+}
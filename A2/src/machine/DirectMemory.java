@@ -0,0 +1,99 @@
+package machine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * class DirectMemory - block of memory held off the Java heap in direct
+ * byte buffers, so that it is not scanned or copied by the garbage 
+ * collector and is not limited by the size of the Java heap. 
+ * A single buffer is limited to 2^31 bytes so the block is divided into
+ * pages, each a separate buffer of PAGE_SIZE words (the last page may
+ * be smaller).
+ */
+final class DirectMemory extends Memory {
+    /** log2 of the number of words in a page */
+    private static final int PAGE_BITS = 20;
+    /** Number of words in a page */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /** Mask for the index of a word within its page */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** Pages of the block */
+    private final IntBuffer[] pages;
+    /** Number of words in the block */
+    private final int size;
+
+    DirectMemory( int size, int fill ) {
+        this.size = size;
+        pages = new IntBuffer[ (int)(((long)size + PAGE_MASK) >> PAGE_BITS) ];
+        /* Words to fill the pages with in bulk */
+        int[] fillWords = new int[ Math.min( size, 1024 ) ];
+        Arrays.fill( fillWords, fill );
+        for( int p = 0; p < pages.length; p++ ) {
+            int words = Math.min( PAGE_SIZE, size - (p << PAGE_BITS) );
+            pages[p] = ByteBuffer.allocateDirect( words * 4 )
+                .order( ByteOrder.nativeOrder() ).asIntBuffer();
+            while( pages[p].hasRemaining() ) {
+                pages[p].put( fillWords, 0, 
+                        Math.min( fillWords.length, pages[p].remaining() ) );
+            }
+        }
+    }
+    int size() {
+        return size;
+    }
+    int get( int index ) {
+        return pages[index >>> PAGE_BITS].get( index & PAGE_MASK );
+    }
+    void set( int index, int value ) {
+        pages[index >>> PAGE_BITS].put( index & PAGE_MASK, value );
+    }
+    void fill( int from, int to, int value ) {
+        for( int i = from; i < to; i++ ) {
+            set( i, value );
+        }
+    }
+    Memory allocate( int size, int fill ) {
+        return new DirectMemory( size, fill );
+    }
+    @Override
+    void load( int index, int[] source, int count ) {
+        /* Copy a run of words within a single page at a time */
+        int from = 0;
+        while( from < count ) {
+            int offset = (index + from) & PAGE_MASK;
+            int run = Math.min( count - from, PAGE_SIZE - offset );
+            IntBuffer dst = pages[(index + from) >>> PAGE_BITS].duplicate();
+            dst.position( offset );
+            dst.put( source, from, run );
+            from += run;
+        }
+    }
+    @Override
+    void copyTo( int from, Memory dest, int to, int count ) {
+        if( !(dest instanceof DirectMemory) ) {
+            super.copyTo( from, dest, to, count );
+            return;
+        }
+        DirectMemory target = (DirectMemory)dest;
+        /* Copy a run of words within a single source and destination
+         * page at a time */
+        while( count > 0 ) {
+            int offset = from & PAGE_MASK;
+            int targetOffset = to & PAGE_MASK;
+            int run = Math.min( count, 
+                    Math.min( PAGE_SIZE - offset, PAGE_SIZE - targetOffset ) );
+            IntBuffer src = pages[from >>> PAGE_BITS].duplicate();
+            src.position( offset ).limit( offset + run );
+            IntBuffer dst = target.pages[to >>> PAGE_BITS].duplicate();
+            dst.position( targetOffset );
+            dst.put( src );
+            from += run;
+            to += run;
+            count -= run;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * class Heap - the garbage collected heap of the stack machine.
+ * The heap occupies [limit, top) and grows down towards the stack. It is
+ * divided into blocks, each of which is either an object allocated by
+ * ALLOC_HEAP or free. The size and pointer map of each block are kept in
+ * tables here rather than in the memory of the machine, so that objects
+ * are laid out exactly as by a simple bump allocator; until the first
+ * collection the addresses allocated are unchanged.
+ *
+ * Free blocks are kept on free lists segregated by size. When the stack
+ * would run into the heap the machine collects garbage: it marks the
+ * objects referenced from its roots and then the heap is swept, adjacent
+ * free blocks being coalesced and the free blocks at the bottom of the
+ * heap returned to the space between the stack and the heap.
+ * Objects are never moved, as the expression stack holds untyped words
+ * (e.g. the address of a field being assigned to) that could not be
+ * updated. Such words are treated conservatively as references to the
+ * objects containing them, as are the words of an object allocated by
+ * code without a pointer map.
+ */
+final class Heap {
+    /** Pointer map of an object of unknown layout - all its words are
+     * treated as possible pointers */
+    static final int UNKNOWN = -1;
+    /** Free blocks of up to this size each have a free list of their size;
+     * larger free blocks share a single list */
+    private static final int SMALL_SIZES = 16;
+    /** Initial size of the block tables */
+    private static final int INITIAL_TABLE = 256;
+
+    /** Address one past the highest word of the heap */
+    private final int top;
+    /** Size of the block starting at each address, indexed by
+     * (top - address): positive for an object, negative for a free block
+     * and zero if no block starts at the address */
+    private int[] sizes;
+    /** Pointer map of the object starting at each address, indexed
+     * as for sizes */
+    private int[] maps;
+    /** Pointer maps, each the offsets of the words of an object
+     * that hold pointers */
+    private List<int[]> pointerMaps;
+    /** Addresses of the free blocks of each size up to SMALL_SIZES,
+     * and of the larger free blocks in freeLists[0] */
+    private int[][] freeLists;
+    /** Number of addresses in each free list */
+    private int[] freeCounts;
+    /** Object that is reachable whatever the state of the roots,
+     * i.e. one whose address is being pushed, or -1 if there is none */
+    private int pinned;
+
+    /* State of a collection */
+    /** Bottom of the heap being collected */
+    private int bottom;
+    /** Start addresses of the blocks, in increasing order */
+    private int[] starts;
+    /** Number of blocks */
+    private int blockCount;
+    /** Whether each object has been marked, indexed as for sizes */
+    private boolean[] marked;
+    /** Objects marked but not yet scanned */
+    private int[] pending;
+    private int pendingCount;
+
+    /** Number of collections */
+    private int collections;
+    /** Total size of the objects reclaimed */
+    private long reclaimed;
+    /** Profile told of the objects reclaimed, or null if not profiling */
+    private HeapProfile profile;
+
+    /** An empty heap below the address top */
+    Heap( int top ) {
+        this.top = top;
+        this.sizes = new int[ INITIAL_TABLE ];
+        this.maps = new int[ INITIAL_TABLE ];
+        this.pointerMaps = new ArrayList<int[]>();
+        this.freeLists = new int[ SMALL_SIZES + 1 ][ 8 ];
+        this.freeCounts = new int[ SMALL_SIZES + 1 ];
+        this.pinned = -1;
+        this.starts = new int[ INITIAL_TABLE ];
+        this.pending = new int[ INITIAL_TABLE ];
+    }
+
+    /** Add a pointer map.
+     * @param offsets of the words of an object that hold pointers
+     * @return the identifier of the map */
+    int addPointerMap( int[] offsets ) {
+        pointerMaps.add( offsets.clone() );
+        return pointerMaps.size() - 1;
+    }
+    /** Report the objects reclaimed to a profile (or none if null) */
+    void setProfile( HeapProfile profile ) {
+        this.profile = profile;
+    }
+    /** @return number of collections so far */
+    int getCollections() {
+        return collections;
+    }
+    /** @return total number of words of the objects reclaimed */
+    long getReclaimed() {
+        return reclaimed;
+    }
+
+/***************************** Allocation *******************************/
+
+    /** Allocate an object from the free blocks.
+     * @param size of the object, which must be positive
+     * @param map identifier of the pointer map of the object, or UNKNOWN
+     * @return address of the object or -1 if no free block is big enough
+     */
+    int allocate( int size, int map ) {
+        int address = -1;
+        if( size <= SMALL_SIZES && freeCounts[size] > 0 ) {
+            address = freeLists[size][--freeCounts[size]];
+        } else {
+            address = allocateLarger( size );
+        }
+        if( address >= 0 ) {
+            sizes[top - address] = size;
+            maps[top - address] = map;
+        }
+        return address;
+    }
+    /** Record an object allocated at the bottom of the heap.
+     * @param address of the object, which is the new bottom of the heap
+     * @param size of the object, which must be positive
+     * @param map identifier of the pointer map of the object, or UNKNOWN
+     */
+    void record( int address, int size, int map ) {
+        int index = top - address;
+        if( index >= sizes.length ) {
+            int length = Math.max( index + 1, 2 * sizes.length );
+            sizes = Arrays.copyOf( sizes, length );
+            maps = Arrays.copyOf( maps, length );
+        }
+        sizes[index] = size;
+        maps[index] = map;
+    }
+    /** Make the object at address reachable until unpin is called */
+    void pin( int address ) {
+        pinned = address;
+    }
+    void unpin() {
+        pinned = -1;
+    }
+    /** Allocate from the first large free block that is big enough or,
+     * failing that, the smallest bigger small free block, splitting off
+     * the remainder of the block as a free block.
+     * @return the address allocated or -1 if there is none */
+    private int allocateLarger( int size ) {
+        int[] large = freeLists[0];
+        for( int i = 0; i < freeCounts[0]; i++ ) {
+            int address = large[i];
+            int blockSize = -sizes[top - address];
+            if( size <= blockSize ) {
+                large[i] = large[--freeCounts[0]];
+                split( address, blockSize, size );
+                return address;
+            }
+        }
+        for( int s = size + 1; s <= SMALL_SIZES; s++ ) {
+            if( freeCounts[s] > 0 ) {
+                int address = freeLists[s][--freeCounts[s]];
+                split( address, s, size );
+                return address;
+            }
+        }
+        return -1;
+    }
+    /** Free the words of the block at address beyond its first size words */
+    private void split( int address, int blockSize, int size ) {
+        if( size < blockSize ) {
+            addFree( address + size, blockSize - size );
+        }
+    }
+    /** Add a free block to the appropriate free list */
+    private void addFree( int address, int size ) {
+        sizes[top - address] = -size;
+        int list = size <= SMALL_SIZES ? size : 0;
+        if( freeCounts[list] == freeLists[list].length ) {
+            freeLists[list] = Arrays.copyOf( freeLists[list],
+                    2 * freeLists[list].length );
+        }
+        freeLists[list][freeCounts[list]++] = address;
+    }
+
+/***************************** Collection *******************************/
+    /* A collection consists of beginCollection, then mark for each of
+     * the roots, then trace to mark everything reachable from them and
+     * finally sweep. */
+
+    /** Begin a collection of the heap [limit, top) */
+    void beginCollection( int limit ) {
+        bottom = limit;
+        blockCount = 0;
+        for( int address = limit; address < top;
+                address += Math.abs( sizes[top - address] ) ) {
+            if( blockCount == starts.length ) {
+                starts = Arrays.copyOf( starts, 2 * starts.length );
+            }
+            starts[blockCount++] = address;
+        }
+        marked = new boolean[ top - limit + 1 ];
+        pendingCount = 0;
+        if( pinned >= 0 ) {
+            mark( pinned );
+        }
+    }
+    /** Mark the object containing the given address, if there is one */
+    void mark( int address ) {
+        if( address < bottom || top <= address ) {
+            return;
+        }
+        /* Find the last block starting at or before address */
+        int low = 0;
+        int high = blockCount - 1;
+        while( low < high ) {
+            int mid = (low + high + 1) >>> 1;
+            if( starts[mid] <= address ) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int start = starts[low];
+        int index = top - start;
+        if( sizes[index] > 0 && !marked[index] ) {
+            marked[index] = true;
+            if( pendingCount == pending.length ) {
+                pending = Arrays.copyOf( pending, 2 * pending.length );
+            }
+            pending[pendingCount++] = start;
+        }
+    }
+    /** Mark all the objects reachable from those already marked.
+     * @param memory holding the heap
+     * @param base address of the first word of memory */
+    void trace( Memory memory, int base ) {
+        while( pendingCount > 0 ) {
+            int address = pending[--pendingCount];
+            int size = sizes[top - address];
+            int map = maps[top - address];
+            if( map == UNKNOWN ) {
+                for( int i = 0; i < size; i++ ) {
+                    mark( memory.get( address + i - base ) );
+                }
+            } else {
+                for( int offset : pointerMaps.get( map ) ) {
+                    if( offset < size ) {
+                        mark( memory.get( address + offset - base ) );
+                    }
+                }
+            }
+        }
+    }
+    /** Free all the objects that have not been marked, rebuilding the
+     * free lists from scratch.
+     * @return the new bottom of the heap */
+    int sweep() {
+        Arrays.fill( freeCounts, 0 );
+        int limit = bottom;
+        int freeStart = -1;
+        for( int i = 0; i < blockCount; i++ ) {
+            int address = starts[i];
+            int index = top - address;
+            if( sizes[index] > 0 && marked[index] ) {
+                if( freeStart >= 0 ) {
+                    limit = release( freeStart, address, limit );
+                    freeStart = -1;
+                }
+                continue;
+            }
+            if( sizes[index] > 0 ) {
+                reclaimed += sizes[index];
+                if( profile != null ) {
+                    profile.freed( address, sizes[index] );
+                }
+            }
+            if( freeStart < 0 ) {
+                freeStart = address;
+            } else {
+                sizes[index] = 0;
+            }
+        }
+        if( freeStart >= 0 ) {
+            limit = release( freeStart, top, limit );
+        }
+        collections++;
+        marked = null;
+        return limit;
+    }
+    /** Free the words [from, to), returning them to the space below the
+     * heap if they are at the bottom of the heap.
+     * @return the new bottom of the heap */
+    private int release( int from, int to, int limit ) {
+        if( from == limit ) {
+            sizes[top - from] = 0;
+            return to;
+        }
+        addFree( from, to - from );
+        return limit;
+    }
+}
@@ -0,0 +1,158 @@
+package machine;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import source.ErrorHandler;
+import tree.AddressMap;
+import tree.Procedures.ProcedureCode;
+
+/**
+ * class HeapProfile - profile of the heap allocation of a program, as
+ * recorded by the stack machine when heap profiling is requested.
+ * Each object allocated is attributed to its allocation site, i.e. the
+ * ALLOC_HEAP instruction that allocated it, which identifies the procedure
+ * and source location of the "new". The objects freed by the garbage
+ * collector are reported back so that the live objects of each site are
+ * known; an object counts as live until it is reclaimed. The machine
+ * makes no calls on the profile unless profiling.
+ */
+final class HeapProfile {
+    /** Size of a word of the stack machine */
+    static final int BYTES_PER_WORD = 4;
+
+    /** Allocation statistics of a single ALLOC_HEAP instruction */
+    private static class Site {
+        /** Address of the ALLOC_HEAP instruction */
+        final int address;
+        long objects = 0;
+        long words = 0;
+        int liveObjects = 0;
+        long liveWords = 0;
+
+        Site( int address ) {
+            this.address = address;
+        }
+    }
+
+    /** Address one past the highest word of the heap */
+    private final int top;
+    /** Procedures containing the allocation sites */
+    private final AddressMap<ProcedureCode> procedureMap;
+    /** Source locations of the allocation sites, by instruction address */
+    private final Map<Integer,Location> locations;
+    /** Allocation sites by instruction address, in order of first use */
+    private Map<Integer,Site> sites;
+    /** Site of the live object starting at each address, indexed by
+     * (top - address) as for the tables of Heap */
+    private Site[] owners;
+
+    /* Totals for the program */
+    private long objects = 0;
+    private long words = 0;
+    private int liveObjects = 0;
+    private long liveWords = 0;
+    /** Greatest number of words of live objects */
+    private long peakLiveWords = 0;
+    /** Greatest size in words of the heap, including its free blocks */
+    private int highWaterMark = 0;
+
+    /** Profile of the heap below the address top.
+     * @param procedureMap procedures of the code as loaded
+     * @param locations source locations of the ALLOC_HEAP instructions */
+    HeapProfile( int top, AddressMap<ProcedureCode> procedureMap,
+            Map<Integer,Location> locations ) {
+        this.top = top;
+        this.procedureMap = procedureMap;
+        this.locations = locations;
+        this.sites = new LinkedHashMap<Integer,Site>();
+        this.owners = new Site[ 256 ];
+    }
+
+    /** Record an allocation.
+     * @param site address of the ALLOC_HEAP instruction
+     * @param address of the object allocated
+     * @param size of the object in words
+     * @param limit bottom of the heap after the allocation */
+    void allocated( int site, int address, int size, int limit ) {
+        Site s = sites.get( site );
+        if( s == null ) {
+            s = new Site( site );
+            sites.put( site, s );
+        }
+        s.objects++;
+        s.words += size;
+        objects++;
+        words += size;
+        if( size > 0 ) {
+            int index = top - address;
+            if( index >= owners.length ) {
+                owners = Arrays.copyOf( owners,
+                        Math.max( index + 1, 2 * owners.length ) );
+            }
+            owners[index] = s;
+            s.liveObjects++;
+            s.liveWords += size;
+            liveObjects++;
+            liveWords += size;
+            peakLiveWords = Math.max( peakLiveWords, liveWords );
+        }
+        highWaterMark = Math.max( highWaterMark, top - limit );
+    }
+    /** Record the freeing of an object by the garbage collector */
+    void freed( int address, int size ) {
+        int index = top - address;
+        Site s = owners[index];
+        owners[index] = null;
+        if( s != null ) {
+            s.liveObjects--;
+            s.liveWords -= size;
+        }
+        liveObjects--;
+        liveWords -= size;
+    }
+
+    /** Print the profile, the sites being sorted by the number of
+     * words they allocated, largest first */
+    void print( PrintStream out ) {
+        out.println( "Heap profile: " + objects + " objects of " + words +
+                " words (" + words * BYTES_PER_WORD + " bytes) allocated, " +
+                liveObjects + " objects of " + liveWords + " words live" );
+        out.println( "  high-water mark " + highWaterMark +
+                " words, peak live " + peakLiveWords + " words" );
+        List<Site> sorted = new ArrayList<Site>( sites.values() );
+        Collections.sort( sorted, new Comparator<Site>() {
+            public int compare( Site a, Site b ) {
+                if( a.words != b.words ) {
+                    return a.words > b.words ? -1 : 1;
+                }
+                return a.address - b.address;
+            }
+        } );
+        out.println( String.format( "  %10s %10s %10s %10s %8s  %s",
+                "Words", "Bytes", "Objects", "Live", "Site", "Procedure" ) );
+        for( Site s : sorted ) {
+            ProcedureCode proc = procedureMap.lookup( s.address );
+            out.println( String.format( "  %10d %10d %10d %10d %8d  %s %s",
+                    s.words, s.words * BYTES_PER_WORD, s.objects,
+                    s.liveObjects, s.address,
+                    proc == null ? "?" : proc.getName(),
+                    sourceOf( s.address ) ) );
+        }
+    }
+    /** @return the source location of an allocation site */
+    private String sourceOf( int site ) {
+        Location loc = locations.get( site );
+        if( loc == null || loc.equals( ErrorHandler.NO_LOCATION ) ) {
+            return "";
+        }
+        return "at line " + loc.getLine() + " column " + loc.getColumn();
+    }
+}
@@ -1,9 +1,12 @@
 package machine;
 
+import java_cup.runtime.ComplexSymbolFactory.Location;
 import syms.SymEntry;
 
 /**
- * class Instruction - represents an instruction in generated code
+ * class Instruction - represents an instruction in generated code.
+ * Code holds its instructions packed into words; they are decoded into
+ * instructions for the code improvement passes to edit.
  * @version $Revision: 22 $  $Date: 2014-05-20 15:14:36 +1000 (Tue, 20 May 2014) $
  */
 public class Instruction {
@@ -15,11 +18,9 @@ public class Instruction {
     public Operation getOp() {
         return op;
     }
-    public void loadInstruction( StackMachine machine ) {
-        machine.generateWord(op.ordinal(), op.toString() );
-    }
     
-    /** LOAD_CON is the only instruction with a parameter */
+    /** LOAD_CON is the only instruction of the basic instruction set
+     * with a parameter */
     public static class LoadConInstruction extends Instruction {
         protected int value;
         
@@ -33,11 +34,6 @@ public class Instruction {
         public void setValue( int value ) {
             this.value = value;
         }
-        @Override
-        public void loadInstruction( StackMachine machine ) {
-            super.loadInstruction(machine);
-            machine.generateWord( value, "" );
-        }
     }
     
     /** The addresses of procedures are resolved when the program is
@@ -55,10 +51,48 @@ public class Instruction {
         public SymEntry.ProcedureEntry getProc() {
             return proc;
         }
-        @Override
-        public void loadInstruction( StackMachine machine ) {
-            value = proc.getStart();
-            super.loadInstruction( machine );
+    }
+    
+    /** ALLOC_HEAP carries the pointer map of the objects it allocates:
+     * the offsets of the words of an object that hold pointers. The map
+     * is passed to the stack machine when the code is loaded and is
+     * used by its garbage collector. The source location of the 
+     * allocation is passed along with it for the heap profile.
+     */
+    public static class AllocHeapInstruction extends Instruction {
+        private int[] pointerOffsets;
+        private Location location;
+        
+        public AllocHeapInstruction( int[] pointerOffsets, Location location ) {
+            super( Operation.ALLOC_HEAP );
+            this.pointerOffsets = pointerOffsets;
+            this.location = location;
+        }
+        public int[] getPointerOffsets() {
+            return pointerOffsets;
+        }
+        public Location getLocation() {
+            return location;
+        }
+    }
+    
+    /** A superinstruction combines a short sequence of instructions
+     * (see Operation) into one, with the constants loaded by the sequence
+     * stored inline as operands following the opcode.
+     */
+    public static class FusedInstruction extends Instruction {
+        protected int[] operands;
+        
+        public FusedInstruction( Operation op, int... operands ) {
+            super( op );
+            assert operands.length == op.getSize() - 1;
+            this.operands = operands;
+        }
+        public int getOperand( int i ) {
+            return operands[i];
+        }
+        public void setOperand( int i, int value ) {
+            operands[i] = value;
         }
     }
 }
@@ -0,0 +1,41 @@
+package machine;
+
+/**
+ * class Memory - a block of words of the memory of the stack machine.
+ * The stack machine keeps its stack in one block and its heap and code 
+ * in another, and grows them by allocating a larger block of the same
+ * kind and copying the words across.
+ * Blocks are either on the Java heap (ArrayMemory) or off it 
+ * (DirectMemory). The off heap implementation is only loaded if it is
+ * used, so that otherwise calls on a Memory can be bound (and inlined)
+ * to ArrayMemory by the JIT compiler.
+ */
+abstract class Memory {
+
+    /** @return number of words in the block */
+    abstract int size();
+    /** @return word at index */
+    abstract int get( int index );
+    /** Set the word at index */
+    abstract void set( int index, int value );
+    /** Set the words with indices in [from, to) to value */
+    abstract void fill( int from, int to, int value );
+    /** @return a new block of the same kind with all its words set to fill */
+    abstract Memory allocate( int size, int fill );
+
+    /** Copy the first count words of the array source to the words 
+     * starting at index of this block */
+    void load( int index, int[] source, int count ) {
+        for( int i = 0; i < count; i++ ) {
+            set( index + i, source[i] );
+        }
+    }
+    /** Copy count words starting at index from of this block to the
+     * words starting at index to of the dest block. The blocks may be
+     * the same, but then the words must not overlap. */
+    void copyTo( int from, Memory dest, int to, int count ) {
+        for( int i = 0; i < count; i++ ) {
+            dest.set( to + i, get( from + i ) );
+        }
+    }
+}
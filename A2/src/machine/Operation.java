@@ -53,9 +53,23 @@ public enum Operation {
     /* Loading multiple words onto the stack */
     LOAD_MULTI(),      /* Load multiple words onto stack */
     STORE_MULTI(),     /* Store multiple words from stack */
+    /* Superinstructions - fused sequences with inline constant operands */
+    LOAD_LOCAL( 2 ),   /* LOAD_CON k; LOAD_FRAME */
+    STORE_LOCAL( 2 ),  /* LOAD_CON k; STORE_FRAME */
+    ADD_CON( 2 ),      /* LOAD_CON k; ADD */
+    BR_CON( 2 ),       /* LOAD_CON k; BR */
+    BR_FALSE_CON( 2 ), /* LOAD_CON k; BR_FALSE */
+    BOUND_CON( 3 ),    /* LOAD_CON lower; LOAD_CON upper; BOUND */
+    TO_LOCAL_CHECKED(), /* DUP; nil check; TO_LOCAL - see Superinstructions */
+    /* Access to non-local variables through the display, with inline
+     * static level and offset operands */
+    LOAD_DISPLAY( 3 ),  /* Load word at offset in frame at level */
+    STORE_DISPLAY( 3 ), /* Store word at offset in frame at level */
+    REF_DISPLAY( 3 ),   /* Frame relative address of offset in frame */
     STOP();            /* Halt execution */
 
-    /* Size of the instruction - LOAD_CON of size 2 */
+    /* Size of the instruction - LOAD_CON and the superinstructions
+     * include their operands in their size */
     private int size;
     
     public int getSize() {
@@ -2,17 +2,34 @@ package machine;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.io.PrintStream;
 
+import java_cup.runtime.ComplexSymbolFactory.Location;
 import source.ErrorHandler;
 import source.Errors;
 import syms.SymEntry;
+import syms.Type;
+import tree.AddressMap;
+import tree.Code;
 import tree.Procedures;
 import tree.Procedures.ProcedureCode;
 
 /** class StackMachine - Implementation of an emulation engine and code writer
  *    for the Stack Machine.
+ * Memory consists of a data segment [0, CODE_START) followed by a code
+ * segment [CODE_START, MEM_LIMIT). The stack grows up from the bottom of
+ * the data segment and the heap grows down from its top. The sizes of the
+ * segments may be set (before any code is generated) by setMemorySize.
+ * The words of the stack and heap are only allocated as they are needed,
+ * so the data segment is a ceiling rather than an up front cost.
+ * Memory is held either in arrays on the Java heap or, for very large
+ * memories, off the Java heap (see Memory).
+ * The heap is garbage collected (see Heap) when the stack and the heap
+ * would otherwise collide.
  * @version $Revision: 22 $  $Date: 2014-05-20 15:14:36 +1000 (Tue, 20 May 2014) $
  */
 
@@ -33,21 +50,38 @@ public class StackMachine {
     public final static int LOCALS_BASE = 3; 
     /** Offset of start of parameters from frame pointer */
     public final static int PARAMS_BASE = 0; 
-    /** Start of code within memory */
-    public final static int CODE_START = 1000;
+    /** Default size of the data segment (stack and heap) */
+    public final static int DEFAULT_DATA_SIZE = 1000;
+    /** Default size of the code segment */
+    public final static int DEFAULT_CODE_SIZE = 9000;
+    /** Start of code within memory = size of the data segment */
+    public static int CODE_START = DEFAULT_DATA_SIZE;
     /** Size of memory */
-    private final static int MEM_LIMIT = 10000;
+    private static int MEM_LIMIT = DEFAULT_DATA_SIZE + DEFAULT_CODE_SIZE;
     /** Address outside memory */
-    public final static int NULL_ADDR = MEM_LIMIT;
+    public static int NULL_ADDR = MEM_LIMIT;
+    /** Number of words initially allocated to each of the stack and heap */
+    private final static int INITIAL_SEGMENT = 1024;
     
-    /** Memory array - stack and heap and code */
-    private int memory[] = new int [MEM_LIMIT];
+    /** Memory for the stack - addresses [0, stackMemory.size()) */
+    private Memory stackMemory;
+    /** Memory for the heap and code - addresses 
+     * [highBase, highBase + highMemory.size()) */
+    private Memory highMemory;
+    /** Address of the first word of high memory */
+    private int highBase;
     /** Location to store the next instruction during code generation */
     private int currLocn = CODE_START;
     /** Print an assembler listing? */
     private boolean listing = false;
     /** Stack machine running? */
     private boolean running = false;
+    /** Print execution statistics on termination? */
+    private boolean statistics = false;
+    /** Number of instructions executed */
+    private long instructionCount = 0;
+    /** Threaded form of the code - decoded on first untraced run */
+    private ThreadedCode threaded = null;
 
     /** Stack machine stop codes */
     public static final int NIL_POINTER = 2;
@@ -67,6 +101,8 @@ public class StackMachine {
         EnumSet.complementOf( TRACE_ALL );
     /** Current tracing during execution of stack machine */
     private EnumSet<Trace> tracing = TRACE_NONE;
+    /** Is any tracing requested - chooses the interpreter used */
+    private boolean traced = false;
 
     /** Output stream */
     private PrintStream outStream;
@@ -74,6 +110,8 @@ public class StackMachine {
     private Errors errors;
     /** Stores addresses of procedure starts */
     private Procedures procedures;
+    /** Map from code addresses to procedures, for the code as loaded */
+    private AddressMap<ProcedureCode> procedureMap;
 
     /** Bottom of stack */
     private final int STACK_START = 0;
@@ -85,6 +123,38 @@ public class StackMachine {
     private int sp = STACK_START;
     /** Top of stack limit = bottom of heap limit */
     private int limit = CODE_START;
+    /** The blocks of the heap [limit, CODE_START) */
+    private Heap heap = new Heap( CODE_START );
+    /** Number of words allocated since the last garbage collection */
+    private int allocated = 0;
+    /** Pointer map of the objects allocated by each ALLOC_HEAP
+     * instruction, indexed by the address of the instruction */
+    private Map<Integer,Integer> allocMaps = new HashMap<Integer,Integer>();
+    /** Source location of each ALLOC_HEAP instruction, indexed as for
+     * allocMaps */
+    private Map<Integer,Location> allocLocations = 
+        new HashMap<Integer,Location>();
+    /** Profile of the heap allocation, or null if not profiling */
+    private HeapProfile heapProfile = null;
+    /** Layout of the frame of each procedure (see frameMap), indexed
+     * as for procedureMap and built when first needed */
+    private byte[][] frameMaps;
+    /** Greatest stack depth (relative to the frame pointer) of each 
+     * verified procedure, indexed by the address of its entry point less
+     * CODE_START, and zero for all other addresses */
+    private int[] frameDepths;
+    /** Whether the code was rejected as malformed by the verifier */
+    private boolean rejected = false;
+    /** Frame pointer of the current activation at each static level, for
+     * code that addresses non-local variables through the display (see
+     * LOAD_DISPLAY), or null if no code does */
+    private int[] display = null;
+    /** Static level of each procedure, indexed as for frameDepths */
+    private int[] entryLevels;
+    /** Level and previous display entry saved by each call, restored
+     * by the corresponding return */
+    private int[] displaySaved;
+    private int displayCount = 0;
     /** Standard input line reader */
     private BufferedReader in =
         new BufferedReader( new InputStreamReader (System.in) );
@@ -93,45 +163,209 @@ public class StackMachine {
 
     public StackMachine( Errors errors, PrintStream outStream, 
             boolean verbose, Procedures procedures ) {
+        this( errors, outStream, verbose, procedures, false );
+    }
+    /** Stack machine with its memory either on or off the Java heap.
+     * Off heap memory is not subject to garbage collection or limited by
+     * the size of the Java heap, but the top of stack caching engine
+     * (runCached) is only available for memory on the Java heap. */
+    public StackMachine( Errors errors, PrintStream outStream, 
+            boolean verbose, Procedures procedures, boolean offHeap ) {
         this.errors = errors;
         this.outStream = outStream;
         this.listing = verbose;
         this.procedures = procedures;
-        for( int i=0; i<MEM_LIMIT; i++ ) {
-            memory[i] = NULL_ADDR;  // out of memory address
+        /* Unused memory holds NULL_ADDR (an out of memory address) */
+        int stackSize = Math.min( INITIAL_SEGMENT, CODE_START / 2 );
+        if( offHeap ) {
+            stackMemory = new DirectMemory( stackSize, NULL_ADDR );
+        } else {
+            stackMemory = new ArrayMemory( stackSize, NULL_ADDR );
         }
+        highBase = CODE_START - 
+            Math.min( INITIAL_SEGMENT, CODE_START - stackSize );
+        highMemory = stackMemory.allocate( CODE_START - highBase, NULL_ADDR );
         for( ProcedureCode proc : procedures.getProcedureEntries() ) {
             if( listing ) {
                 outStream.println( "Procedure " +
                     proc.getLocals().getOwnerEntry().getIdent() );
             }
-            if( proc.getName() == "<main>" ) {
+            if( proc.getName().equals( "<main>" ) ) {
                 /* Set the start location for execution */
                 pc = currLocn;
             }
-            for( Instruction inst : proc.getCode().getInstructionList() ) {
-                 inst.loadInstruction(this);
+            loadCode( proc.getCode() );
+        }
+        procedureMap = procedures.getAddressMap();
+        frameMaps = new byte[ procedureMap.size() ][];
+        verifyCode();
+        if( display != null ) {
+            setUpDisplay();
+        }
+    }
+    /** Set up the display for code that uses it, recording the static
+     * level of each procedure so that CALL can update the display */
+    private void setUpDisplay() {
+        entryLevels = new int[ currLocn - CODE_START ];
+        int maxLevel = 0;
+        for( int i = 0; i < procedureMap.size(); i++ ) {
+            int level = procedureMap.get( i ).getLocals().getLevel();
+            entryLevels[procedureMap.getStart( i ) - CODE_START] = level;
+            maxLevel = Math.max( maxLevel, level );
+        }
+        display = new int[ maxLevel + 1 ];
+        displaySaved = new int[ 2 * 16 ];
+    }
+    /** Verify the code of each procedure as loaded (see CodeVerifier),
+     * recording the greatest stack depth of each procedure verified.
+     * Malformed code is reported as an error and is not run. */
+    private void verifyCode() {
+        frameDepths = new int[ currLocn - CODE_START ];
+        for( int i = 0; i < procedureMap.size(); i++ ) {
+            ProcedureCode proc = procedureMap.get( i );
+            int start = procedureMap.getStart( i );
+            try {
+                int depth = CodeVerifier.verify( highMemory, highBase, 
+                        start, procedureMap.getFinish( i ) );
+                if( depth != CodeVerifier.UNVERIFIABLE ) {
+                    frameDepths[start - CODE_START] = depth;
+                }
+                if( listing ) {
+                    int frame = CodeVerifier.FRAME_HEADER + 
+                        proc.getLocals().getVariableSpace();
+                    outStream.println( "Procedure " + proc.getName() + 
+                        ": frame size " + frame + " words, " + 
+                        (depth == CodeVerifier.UNVERIFIABLE ? 
+                            "not verified" : "max operand depth " + 
+                            (depth - frame) + " words") );
+                }
+            } catch( CodeVerifier.MalformedCode e ) {
+                errors.error( "Malformed code in procedure " + proc.getName() +
+                        " at " + e.getAddress() + ": " + e.getMessage(),
+                        ErrorHandler.NO_LOCATION );
+                rejected = true;
             }
         }
+        if( rejected ) {
+            errors.flush();
+        }
     }
 
 /***************************** Public Methods *************************/
 
+    /** Set the sizes of the memory segments of all stack machines.
+     * As the start of the code and the null address are built into the
+     * generated code, this must be done before any code is generated.
+     * @param dataSize limit on the combined size of the stack and heap
+     * @param codeSize limit on the size of the code
+     * @throws IllegalArgumentException if a size is not positive or the
+     *  memory would be too large to address
+     */
+    public static void setMemorySize( int dataSize, int codeSize ) {
+        if( dataSize <= 0 || codeSize <= 0 || 
+                (long)dataSize + codeSize >= Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "Invalid memory size " + 
+                    dataSize + "," + codeSize );
+        }
+        CODE_START = dataSize;
+        MEM_LIMIT = dataSize + codeSize;
+        NULL_ADDR = MEM_LIMIT;
+    }
+
     /** Specify whether assembly listings are to be printed out when storing
      * instructions / constants
      */
     public void setListing( boolean list ) {
         listing = list;
     }
-    /** Specify whether code tracing is to be output when executing */
+    /** Specify whether execution statistics are to be printed when 
+     * the machine terminates */
+    public void setStatistics( boolean stats ) {
+        statistics = stats;
+    }
+    /** Specify whether the heap allocation is to be profiled, the profile 
+     * being printed when the machine terminates. Each object allocated is
+     * attributed to the procedure and source location of its ALLOC_HEAP
+     * instruction. This must be set before the machine is run. */
+    public void setHeapProfiling( boolean profiling ) {
+        heapProfile = profiling ? 
+            new HeapProfile( CODE_START, procedureMap, allocLocations ) : null;
+        heap.setProfile( heapProfile );
+    }
+    /** Specify whether code tracing is to be output when executing.
+     * This also chooses the interpreter used by run(): the traced 
+     * interpreter if any tracing is requested, otherwise the untraced
+     * threaded code interpreter, which contains no tracing code at all.
+     */
     public void setTracing( EnumSet<Trace> flags ) {
         tracing = flags;
+        traced = !flags.isEmpty();
     }
     /** Begin executing the code stored in the stack machine. 
      * Runs until a STOP opcode, a return to 0, or an illegal condition 
      * e.g., popping an empty stack.
      */
     public void run( ) {
+        if( rejected ) {
+            outStream.println( "Malformed code - not run" );
+        } else if( traced ) {
+            runTraced();
+        } else {
+            runDecoded( false );
+        }
+    }
+    /** Begin executing the code stored in the stack machine using the
+     * untraced threaded execution engine with the top of stack (and the
+     * pc, sp and fp registers) cached in local variables. Memory is only 
+     * updated when the cached value is pushed down the stack or an
+     * instruction not handled by the cached engine (e.g. CALL) requires
+     * it. The results are the same as for run() for any program that
+     * does not read the unused memory between the stack and the heap.
+     * If any tracing has been requested the traced interpreter is used,
+     * and if the memory is off the Java heap the untraced interpreter.
+     */
+    public void runCached( ) {
+        if( rejected ) {
+            outStream.println( "Malformed code - not run" );
+        } else if( traced ) {
+            runTraced();
+        } else {
+            runDecoded( stackMemory instanceof ArrayMemory );
+        }
+    }
+    /** Run the traced interpreter, which decodes and checks each 
+     * instruction as it is executed. This is package visible so that
+     * the benchmarks can measure it without any tracing enabled. */
+    void runTraced( ) {
+        startMain();
+        execChecked();
+        outStream.println("\nTerminated");
+        printStatistics();
+        // dumpStack();
+    }
+    /** Run an untraced interpreter using the threaded form of the code.
+     * The code region is decoded once into a threaded form and then
+     * executed without the per-instruction program counter and opcode
+     * checks of the traced interpreter. The observable behaviour,
+     * including runtime errors, is the same as for the traced interpreter.
+     * @param cached whether to use the top of stack caching engine
+     */
+    private void runDecoded( boolean cached ) {
+        if( threaded == null ) {
+            threaded = new ThreadedCode( highMemory, highBase, CODE_START, 
+                    currLocn, NULL_ADDR );
+        }
+        startMain();
+        if( cached ) {
+            execCached( threaded );
+        } else {
+            execThreaded( threaded );
+        }
+        outStream.println("\nTerminated");
+        printStatistics();
+    }
+    /** Set up the machine state to begin execution of the main program */
+    private void startMain() {
         running = true;
         /* Establish stack frame for the main program
          * Place dummy static and dynamic links on stack.
@@ -140,28 +374,86 @@ public class StackMachine {
          * Hence the first value pushed is at the location
          * addressed by the frame pointer (fp). 
          */
-        push(0); // Push dummy static link for main program
-        push(0); // Push dummy dynamic link for main program
-        push(0); //Push return address for main program
-        while( running ) {
-            execInstruction();
+        tracedPush(0); // Push dummy static link for main program
+        tracedPush(0); // Push dummy dynamic link for main program
+        tracedPush(0); //Push return address for main program
+        if( display != null ) {
+            display[entryLevels[pc - CODE_START]] = fp;
         }
-        outStream.println("\nTerminated");
-        // dumpStack();
     }
 
-/*********************** Public Code Generators ************************/
-    /** Store the given word (with associated name) into the code buffer
-     * @param word to be stored
-     * @param name of operation code to be used in listing. */
-    public void generateWord( int word, String name ) {
-        if( currLocn >= MEM_LIMIT ) {
+    /** @return map from code addresses to the procedures containing them */
+    public AddressMap<ProcedureCode> getProcedureMap() {
+        return procedureMap;
+    }
+    /** @return number of instructions executed */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+    /** Print the execution statistics and the heap profile if they 
+     * were requested */
+    private void printStatistics() {
+        if( statistics ) {
+            outStream.println( "Instructions executed: " + instructionCount );
+            if( heap.getCollections() > 0 ) {
+                outStream.println( "Garbage collections: " + 
+                        heap.getCollections() + " reclaiming " + 
+                        heap.getReclaimed() + " words" );
+            }
+        }
+        if( heapProfile != null ) {
+            heapProfile.print( outStream );
+        }
+    }
+
+/*************************** Code Loading ****************************/
+    /** Copy the words of the code into memory at the current location in
+     * bulk, then fill in the addresses of the procedures it refers to and
+     * record the pointer maps and source locations of its ALLOC_HEAP
+     * instructions. The opcodes are scanned for the listing and to find
+     * whether the code uses the display. */
+    private void loadCode( Code code ) {
+        int start = currLocn;
+        int count = code.size();
+        if( count > MEM_LIMIT - start ) {
             errors.error( "Object code too large.", ErrorHandler.NO_LOCATION );
-        } else {
-            memory[ currLocn++ ] = word;
+            count = MEM_LIMIT - start;
+        }
+        if( start + count > highBase + highMemory.size() ) {
+            growCode( start + count );
+        }
+        int[] words = code.getWords();
+        highMemory.load( start - highBase, words, count );
+        currLocn += count;
+        for( Code.Relocation r : code.getRelocations() ) {
+            if( r.getPosition() < count ) {
+                highMemory.set( start + r.getPosition() - highBase, 
+                        r.getProc().getStart() );
+            }
+        }
+        for( Code.HeapAllocation h : code.getHeapAllocations() ) {
+            int address = start + h.getPosition();
+            allocMaps.put( address, 
+                    heap.addPointerMap( h.getPointerOffsets() ) );
+            allocLocations.put( address, h.getLocation() );
+        }
+        for( int position = 0; position < count; ) {
+            Operation op = getOperation[ words[position] ];
+            if( op == Operation.LOAD_DISPLAY || 
+                    op == Operation.STORE_DISPLAY ||
+                    op == Operation.REF_DISPLAY ) {
+                display = new int[ 0 ];
+            }
             if( listing ) {
-                printListing( currLocn - 1, word, name );
+                printListing( start + position, words[position], 
+                        op.toString() );
+                for( int i = 1; i < op.getSize() && position + i < count; i++ ) {
+                    printListing( start + position + i, 
+                            highMemory.get( start + position + i - highBase ),
+                            "" );
+                }
             }
+            position += op.getSize();
         }
     }
     /** Print a listing line to the message handler */
@@ -179,17 +471,384 @@ public class StackMachine {
         outStream.println( buf.toString() );
     }
     
+/****************************** Memory segments *************************/
+    /* Stack memory covers [0, stackMemory.size()) and high memory covers
+     * [highBase, highBase + highMemory.size()), with
+     *      sp <= stackMemory.size() <= highBase <= limit
+     * so that the stack is always in stack memory and the heap and the
+     * code are always in high memory. The words between the two are 
+     * unused and read as NULL_ADDR. */
+
+    /** @return the word at an address in [0, MEM_LIMIT) */
+    private int getWord( int address ) {
+        if( address < stackMemory.size() ) {
+            return stackMemory.get( address );
+        } else if( highBase <= address && 
+                address < highBase + highMemory.size() ) {
+            return highMemory.get( address - highBase );
+        } else {
+            return NULL_ADDR;
+        }
+    }
+    /** Set the word at an address in [0, CODE_START) */
+    private void setWord( int address, int value ) {
+        if( address < stackMemory.size() ) {
+            stackMemory.set( address, value );
+        } else if( highBase <= address ) {
+            highMemory.set( address - highBase, value );
+        } else {
+            /* An unused word between the stack and the heap */
+            growStack( address + 1 );
+            stackMemory.set( address, value );
+        }
+    }
+    /** Grow stack memory to at least the given size.
+     * @requires size <= limit */
+    private void growStack( int size ) {
+        int newSize = Math.max( size, Math.min( limit, 
+                Math.max( 2 * stackMemory.size(), INITIAL_SEGMENT ) ) );
+        int newBase = highBase;
+        if( newSize > highBase ) {
+            /* Split the unused words between the stack and the heap */
+            newSize = size + (limit - size) / 2;
+            newBase = newSize;
+        }
+        resize( newSize, newBase, highBase + highMemory.size() );
+    }
+    /** Grow high memory down to the (new) heap limit.
+     * @requires sp <= limit */
+    private void growHeap() {
+        int heapSize = CODE_START - highBase;
+        int newBase = Math.min( limit,
+                CODE_START - Math.max( 2 * heapSize, INITIAL_SEGMENT ) );
+        int newSize = stackMemory.size();
+        if( newBase < newSize ) {
+            /* Split the unused words between the stack and the heap */
+            newBase = limit - (limit - sp) / 2;
+            newSize = newBase;
+        }
+        resize( newSize, newBase, highBase + highMemory.size() );
+    }
+    /** Grow high memory up to at least the given top address */
+    private void growCode( int top ) {
+        int newTop = Math.min( MEM_LIMIT, 
+                Math.max( top, highBase + 2 * highMemory.size() ) );
+        resize( stackMemory.size(), highBase, newTop );
+    }
+    /** Reallocate stack and high memory, copying their contents. Any new
+     * words hold NULL_ADDR. */
+    private void resize( int stackSize, int newBase, int newTop ) {
+        if( stackSize != stackMemory.size() ) {
+            Memory words = stackMemory.allocate( stackSize, NULL_ADDR );
+            stackMemory.copyTo( 0, words, 0, 
+                    Math.min( stackSize, stackMemory.size() ) );
+            stackMemory = words;
+        }
+        int oldTop = highBase + highMemory.size();
+        if( newBase != highBase || newTop != oldTop ) {
+            Memory words = highMemory.allocate( newTop - newBase, NULL_ADDR );
+            int from = Math.max( newBase, highBase );
+            int to = Math.min( newTop, oldTop );
+            if( from < to ) {
+                highMemory.copyTo( from - highBase, words, from - newBase, 
+                        to - from );
+            }
+            highMemory = words;
+            highBase = newBase;
+        }
+    }
+    /** Allocate size words from the heap for the ALLOC_HEAP instruction
+     * just executed, pushing the address of the first word onto the stack.
+     * The words are set to NULL_ADDR. The words are taken from a free
+     * block of the heap if possible, otherwise from the bottom of the
+     * heap, collecting garbage first if that would run into the stack.
+     * @param trace whether to trace the push */
+    private void allocHeap( int size, boolean trace ) {
+        if( size < 0 ) {
+            runtimeError( "invalid heap allocation size " + size );
+            return;
+        }
+        Integer map = allocMaps.get( pc - 1 );
+        int layout = map == null ? Heap.UNKNOWN : map;
+        int address = size > 0 ? heap.allocate( size, layout ) : -1;
+        if( address < 0 && size > 0 && needCollection( size ) ) {
+            collectGarbage();
+            address = heap.allocate( size, layout );
+        }
+        if( address < 0 ) {
+            limit -= size;
+            address = limit;
+            if( size > 0 ) {
+                heap.record( address, size, layout );
+            }
+        }
+        allocated += size;
+        if( heapProfile != null ) {
+            heapProfile.allocated( pc - 1, address, size, limit );
+        }
+        /* The object is unreachable until its address has been pushed */
+        heap.pin( address );
+        if( trace ) {
+            tracedPush( address ); // will fail if limit less than sp
+        } else {
+            push( address );
+        }
+        heap.unpin();
+        if( running && size > 0 ) {
+            if( limit < highBase ) {
+                growHeap();
+            }
+            int end = Math.min( address + size, highBase + highMemory.size() );
+            highMemory.fill( address - highBase, end - highBase, NULL_ADDR );
+        }
+    }
+
+/*************************** Garbage collection *************************/
+    /* The roots of the collector are the words of the stack. The frames
+     * are walked as in traceBack, and the words of each frame that hold
+     * the procedure's variables are roots if the type of the variable
+     * says they hold pointers. All other words of the stack - expression
+     * temporaries, e.g. the address of a new object being assigned, or
+     * the words of a frame that cannot be identified - are treated 
+     * conservatively as roots. */
+
+    /** Kinds of the words of a frame in a frame map */
+    private static final byte FRAME_TEMP = 0, FRAME_DATA = 1, 
+            FRAME_POINTER = 2;
+    /** Least space between the stack and heap before a collection */
+    private static final int MIN_STACK_RESERVE = 16;
+
+    /** @return whether to collect garbage before allocating size words
+     * from the bottom of the heap. As objects are not moved, a live object
+     * at the bottom of the heap stops the stack growing, so a collection
+     * is made rather than letting the space left for the stack get too
+     * small, as well as when the heap would run into the stack. To bound 
+     * the cost of collecting when memory is nearly full of live objects,
+     * the former only happens once enough has been allocated since the
+     * last collection. */
+    private boolean needCollection( int size ) {
+        int reserve = Math.max( MIN_STACK_RESERVE, CODE_START / 8 );
+        int free = limit - size - sp;
+        return free <= 0 || (free < reserve && allocated >= reserve / 2);
+    }
+    /** Collect the garbage in the heap, which may raise the limit */
+    private void collectGarbage() {
+        allocated = 0;
+        if( limit >= CODE_START ) {
+            return;
+        }
+        heap.beginCollection( limit );
+        markRoots();
+        heap.trace( highMemory, highBase );
+        limit = heap.sweep();
+    }
+    /** Mark the objects referenced from the stack */
+    private void markRoots() {
+        int framePC = pc;
+        int frameFP = fp;
+        int frameTop = sp;
+        while( true ) {
+            int returnPC;
+            if( frameFP + LOCALS_BASE > frameTop ) {
+                /* Frame being set up by CALL - the return address
+                 * is still in the pc */
+                returnPC = framePC;
+            } else {
+                returnPC = getWord( frameFP + 2 );
+                byte[] map = frameMap( framePC );
+                for( int address = frameFP; address < frameTop; address++ ) {
+                    int offset = address - frameFP;
+                    if( offset >= map.length || map[offset] != FRAME_DATA ) {
+                        heap.mark( stackMemory.get( address ) );
+                    }
+                }
+            }
+            if( frameFP <= STACK_START ) {
+                return;
+            }
+            int dynamicLink = getWord( frameFP + 1 );
+            if( dynamicLink < STACK_START || frameFP <= dynamicLink ) {
+                /* Not a valid frame - be conservative */
+                for( int address = STACK_START; address < frameFP; address++ ) {
+                    heap.mark( stackMemory.get( address ) );
+                }
+                return;
+            }
+            framePC = returnPC;
+            frameTop = frameFP;
+            frameFP = dynamicLink;
+        }
+    }
+    /** @return the kinds of the words of the frame of the procedure
+     * that will continue at framePC, indexed by offset from the frame
+     * pointer; the words beyond its end are FRAME_TEMP */
+    private byte[] frameMap( int framePC ) {
+        int index = procedureMap.indexOf( framePC - 1 );
+        if( index < 0 ) {
+            return new byte[ 0 ];
+        }
+        if( frameMaps[index] == null ) {
+            byte[] map = new byte[ LOCALS_BASE ];
+            /* The links are not pointers into the heap */
+            for( int i = 0; i < LOCALS_BASE; i++ ) {
+                map[i] = FRAME_DATA;
+            }
+            for( SymEntry entry : procedureMap.get( index ).getLocals().getEntries() ) {
+                if( !(entry instanceof SymEntry.VarEntry) ) {
+                    continue;
+                }
+                SymEntry.VarEntry varEntry = (SymEntry.VarEntry)entry;
+                Type type = varEntry.getType().getBaseType();
+                int start = varEntry.getOffset();
+                if( start < 0 ) {
+                    continue;
+                }
+                int end = start + type.getSpace();
+                if( end > map.length ) {
+                    map = Arrays.copyOf( map, end );
+                }
+                for( int offset = start; offset < end; offset++ ) {
+                    map[offset] = FRAME_DATA;
+                }
+                for( int offset : type.getPointerOffsets() ) {
+                    map[start + offset] = FRAME_POINTER;
+                }
+            }
+            frameMaps[index] = map;
+        }
+        return frameMaps[index];
+    }
+
+/*************************** Block operations ***************************/
+    /* Bulk versions of the instructions that move multiple words, used
+     * whenever the words are not traced individually. Each checks that
+     * the whole move is within bounds and that its source and destination
+     * do not overlap, and if so moves the words as a block. Otherwise it
+     * moves a word at a time, exactly as the traced interpreter does, so
+     * that runtime errors and overlapping moves behave as before. */
+
+    /** @return the memory holding all of the words [address, address+count)
+     *  or null if they are not all in the same memory */
+    private Memory blockAt( int address, int count ) {
+        if( 0 <= address && count <= stackMemory.size() - address ) {
+            return stackMemory;
+        } else if( highBase <= address && 
+                count <= highBase + highMemory.size() - address ) {
+            return highMemory;
+        } else {
+            return null;
+        }
+    }
+    /** Move count words from address from to address to.
+     * @requires both ranges are within memory and do not overlap */
+    private void moveWords( int from, int to, int count ) {
+        Memory source = blockAt( from, count );
+        Memory dest = blockAt( to, count );
+        if( source != null && dest != null ) {
+            source.copyTo( from - (source == stackMemory ? 0 : highBase), 
+                    dest, to - (dest == stackMemory ? 0 : highBase), count );
+        } else {
+            /* Spans the unused words between the stack and the heap */
+            for( int i = 0; i < count; i++ ) {
+                setWord( to + i, getWord( from + i ) );
+            }
+        }
+    }
+    /** @return whether the ranges of count words at a and b are disjoint */
+    private static boolean disjoint( int a, int b, int count ) {
+        return (long)a + count <= b || (long)b + count <= a;
+    }
+    /** COPY count words from address from to address to */
+    private void copyBlock( int from, int to, int count ) {
+        if( running && count > 0 && 0 <= from && count <= MEM_LIMIT - from &&
+                0 <= to && count <= CODE_START - to && 
+                disjoint( from, to, count ) ) {
+            moveWords( from, to, count );
+            return;
+        }
+        int copyLimit = from + count;
+        while( from < copyLimit && running ) {
+            storeValue( to, loadValue( from ) );
+            from += 1;
+            to += 1;
+        }
+    }
+    /** LOAD_MULTI: push the count words starting at address */
+    private void loadMulti( int address, int count ) {
+        if( running && count > 0 && 0 <= address && 
+                count <= MEM_LIMIT - address && count <= limit - sp &&
+                disjoint( address, sp, count ) ) {
+            if( sp + count > stackMemory.size() ) {
+                growStack( sp + count );
+            }
+            moveWords( address, sp, count );
+            sp += count;
+            return;
+        }
+        while( count > 0 ) {
+            push( loadValue( address++ ) );
+            count--;
+        }
+    }
+    /** STORE_MULTI: pop count words into the words starting at address */
+    private void storeMulti( int address, int count ) {
+        if( running && count > 0 && 0 <= address && 
+                count <= CODE_START - address && count <= sp - STACK_START &&
+                disjoint( address, sp - count, count ) ) {
+            moveWords( sp - count, address, count );
+            sp -= count;
+            return;
+        }
+        address += count;
+        while( count > 0 ) {
+            /* store from last location back (to match LOAD_MULTI) */
+            storeValue( --address, pop() );
+            count--;
+        }
+    }
+    /** ALLOC_STACK: push count words of NULL_ADDR */
+    private void allocStack( int count ) {
+        if( running && count > 0 && count <= limit - sp ) {
+            if( sp + count > stackMemory.size() ) {
+                growStack( sp + count );
+            }
+            stackMemory.fill( sp, sp + count, NULL_ADDR );
+            sp += count;
+            return;
+        }
+        for( int i = 1; i <= count && running; i++ ) {
+            push( NULL_ADDR ); 
+        }
+    }
+    /** @return whether individual words pushed, popped, loaded or stored
+     * are being traced, so that the block operations cannot be used */
+    private boolean tracingWords() {
+        return tracing.contains( Trace.STACK ) || tracing.contains( Trace.MEM );
+    }
+
 /*********************** Run time auxiliary methods ********************/
+    /* The untraced versions are used by the untraced interpreters and
+     * the traced versions (which call them) by execInstruction. */
     /** Push the value onto the stack, and increment the stack pointer */
     private void push( int val ) {
-        if( sp >= limit ) {
-            runtimeError( "memory overflow!" );
-        } else {
-            if( tracing.contains( Trace.STACK ) ) {
-                outStream.print( " Push(" + val + ") " );
+        if( sp >= stackMemory.size() ) {
+            if( sp >= limit ) {
+                collectGarbage();
+            }
+            if( sp >= limit ) {
+                runtimeError( "memory overflow!" );
+                return;
             }
-            memory[sp++] = val;
+            growStack( sp + 1 );
+        }
+        stackMemory.set( sp++, val );
+    }
+    /** Push with tracing */
+    private void tracedPush( int val ) {
+        if( sp < limit && tracing.contains( Trace.STACK ) ) {
+            outStream.print( " Push(" + val + ") " );
         }
+        push( val );
     }
     /** Pop the top value form the stack and decrement the stack pointer */
     private int pop( ) {
@@ -197,11 +856,15 @@ public class StackMachine {
             runtimeError( "stack underflow!" );
             return 0;
         } else {
-            if( tracing.contains( Trace.STACK) ) {
-                outStream.print( " Pop() = " + memory[sp-1] + " " );
-            }
-            return memory[--sp];
+            return stackMemory.get( --sp );
+        }
+    }
+    /** Pop with tracing */
+    private int tracedPop( ) {
+        if( sp > STACK_START && tracing.contains( Trace.STACK) ) {
+            outStream.print( " Pop() = " + stackMemory.get( sp-1 ) + " " );
         }
+        return pop();
     }
     /** Return value stored at address */
     private int loadValue( int address ) {
@@ -210,8 +873,13 @@ public class StackMachine {
             runtimeError("load outside memory pc="  +
                 + (pc-1) + ": address=" + address );
         } else {
-             val = memory[address];
+             val = getWord( address );
         }
+        return val;
+    }
+    /** Load with tracing */
+    private int tracedLoadValue( int address ) {
+        int val = loadValue( address );
         if( tracing.contains( Trace.MEM ) ) {
             outStream.print( "\n    Load [" + address + "] => " + val );
         }
@@ -223,8 +891,12 @@ public class StackMachine {
             runtimeError("store outside memory pc="  +
                 + (pc-1) + ": address=" + (address) );
         } else {
-             memory[ address ] = value;
+             setWord( address, value );
         }
+    }
+    /** Store with tracing */
+    private void tracedStoreValue( int address, int value ) {
+        storeValue( address, value );
         if( tracing.contains( Trace.MEM ) ) {
             outStream.print( "\n    Store [" + (address) + "] <= " + value );
         }
@@ -245,7 +917,7 @@ public class StackMachine {
             out.append( i );
             pad( out, n+4 );
             out.append( ": " );
-            out.append( memory[i] );
+            out.append( stackMemory.get( i ) );
             outStream.println( out );
         }
     }
@@ -255,7 +927,7 @@ public class StackMachine {
         int tracePC = pc;
         int traceFP = fp;
         while( tracePC != 0 ) {
-            Procedures.ProcedureCode proc = procedures.getProcedure( tracePC-1 );
+            ProcedureCode proc = procedureMap.lookup( tracePC-1 );
             if( proc == null ) {
                 // if fp is 0 then in main program setup/finalisation code
                 if( fp != 0 ) {
@@ -267,13 +939,13 @@ public class StackMachine {
             }
             outStream.print( "PC=" + tracePC + " in " + proc );
             outStream.print( " FP=" + traceFP );
-            int staticLink = memory[traceFP];
+            int staticLink = getWord( traceFP );
             outStream.print( " SL=" + staticLink );
             // Dynamic link is at offset 1 from frame pointer
-            int dynamicLink = memory[traceFP+1];
+            int dynamicLink = getWord( traceFP+1 );
             outStream.print( " DL=" + dynamicLink );
             // Return address is at offset 2
-            outStream.println( " RA=" + memory[traceFP+2] );
+            outStream.println( " RA=" + getWord( traceFP+2 ) );
             for( SymEntry entry : proc.getLocals().getEntries() ) {
                 if( entry instanceof SymEntry.VarEntry ) {
                     SymEntry.VarEntry varEntry = (SymEntry.VarEntry)entry;
@@ -283,7 +955,7 @@ public class StackMachine {
                             "(" + varEntry.getOffset() + ")" + " =";
                     for( int i = 0; i < varSize; i++ ) {
                         if( 0 <= addr && addr < CODE_START ) {
-                            varVal += " " + memory[addr];
+                            varVal += " " + getWord( addr );
                             addr++;
                         } else {
                             varVal += " offset out of stack bounds";
@@ -294,7 +966,7 @@ public class StackMachine {
                 }
             }
             // Return PC is at offset 2 from frame pointer
-            tracePC = memory[traceFP+2];
+            tracePC = getWord( traceFP+2 );
             if( dynamicLink != 0 && dynamicLink > traceFP - 3 ) {
                 outStream.println( "Trace back terminated early - " +
                     "invalid dynamic link " + dynamicLink + " FP= " + traceFP );
@@ -329,7 +1001,7 @@ public class StackMachine {
             runtimeError( "PC = " + pc + " out of range of code" );
             return;
         }
-        int instWord = memory[pc++];
+        int instWord = getWord( pc++ );
         if( instWord < 0 || getOperation.length <= instWord ) {
             runtimeError( "invalid opcode" );
             return;
@@ -343,15 +1015,16 @@ public class StackMachine {
                               "  Limit: " + limit + 
                               "  Opcode: " +
                               inst + " " );
-            if( inst == Operation.LOAD_CON ) {
-                outStream.print( memory[pc] + " " );
+            /* Print any inline operands (e.g. of LOAD_CON) */
+            for( int i = 0; i < inst.getSize() - 1; i++ ) {
+                outStream.print( getWord( pc + i ) + " " );
             }
         }
         switch (inst) {
         case NO_OP: /* Do nothing */
             break;
         case BR: /* Unconditional branch */
-            int dest = pop(); /* destination offset */
+            int dest = tracedPop(); /* destination offset */
             pc += dest;       /* branch relative to pc */
             if (tracing.contains(Trace.JUMPS)) {
                 outStream.print("\n      Branch => " + pc);
@@ -359,8 +1032,8 @@ public class StackMachine {
             break;
         case BR_FALSE: /* If the second top value = FALSE_VALUE, 
                 jump to the destination */
-            dest = pop();
-            int test = pop();
+            dest = tracedPop();
+            int test = tracedPop();
             if (test == FALSE_VALUE) {
                 pc += dest;
             } else if (test != TRUE_VALUE ) {
@@ -372,59 +1045,73 @@ public class StackMachine {
             break;
         case COPY: /* Copy top-of-stack words from third-top-of-stack address 
                       to second-top-of-stack address */
-            int copySize = pop();
-            int toAddr = fp + pop();
-            int fromAddr = fp + pop();
+            int copySize = tracedPop();
+            int toAddr = fp + tracedPop();
+            int fromAddr = fp + tracedPop();
+            if( !tracingWords() ) {
+                copyBlock( fromAddr, toAddr, copySize );
+                break;
+            }
             int copyLimit = fromAddr + copySize;
             while (fromAddr < copyLimit && running) {
-                storeValue(toAddr, loadValue(fromAddr));
+                tracedStoreValue(toAddr, tracedLoadValue(fromAddr));
                 fromAddr += 1;
                 toAddr += 1;
             }
             break;
         case CALL: /* Execute a call */
-            int addr = pop();   /* pop address of procedure */
+            int addr = tracedPop();   /* pop address of procedure */
             /* Set up a new stack frame.
              * We assume a static link has already been set up */
-            push(fp);           /* push fp to create the dynamic link */
+            tracedPush(fp);           /* push fp to create the dynamic link */
             fp = sp - 2;        /* frame pointer addresses static link */
-            push(pc);           /* save return address */
+            tracedPush(pc);           /* save return address */
             pc = addr;          /* branch to procedure */
+            if( display != null && running ) {
+                enterDisplay( addr );
+            }
             if (tracing.contains(Trace.CALLS)) {
-                Procedures.ProcedureCode proc = procedures.getProcedure( pc );
+                ProcedureCode proc = procedureMap.lookup( pc );
                 outStream.print("\n      Call => " + proc.getName() + " at " + pc);
             }
             break;
         case RETURN: /* Return to caller */
             sp = fp + 3;   /* Set stack pointer so next pop is return address
                               this will also deallocate any locals */ 
-            pc = pop();    /* Set program counter to return address. */
-            fp = pop();    /* Restore the frame pointer from dynamic link */
-            pop();         /* Remove the static link */
+            pc = tracedPop();    /* Set program counter to return address. */
+            fp = tracedPop();    /* Restore the frame pointer from dynamic link */
+            tracedPop();         /* Remove the static link */
             if (pc == 0) { /* Return from main terminates program */
                 running = false;
             }
+            if( display != null ) {
+                leaveDisplay();
+            }
             if (tracing.contains(Trace.CALLS)) {
                 if( pc == 0 ) {
                     outStream.println( "\n      Exiting program" );
                 } else {
                     outStream.print("\n      Returning to => " + 
-                            procedures.getProcedure( pc ).getName() + " at " + pc);
+                            procedureMap.lookup( pc ).getName() + " at " + pc);
                 }
             }
             break;
         case ALLOC_STACK: /* Allocate top-of-stack words on stack */
             /* It is assumed that the top of stack contains the number of 
              * words to be allocated on the stack. */
-            int locs = pop(); /* size in words */
+            int locs = tracedPop(); /* size in words */
+            if( !tracingWords() ) {
+                allocStack( locs );
+                break;
+            }
             /* Allocate space on stack */
             for (int i = 1; i <= locs && running; i++) {
                 /* Push a useless value to make error detection more likely. */
-                push(NULL_ADDR); 
+                tracedPush(NULL_ADDR); 
             }
             break;
         case DEALLOC_STACK: /* Remove locations from the stack */
-            int nwords = pop(); /* Number of words for to deallocate */
+            int nwords = tracedPop(); /* Number of words for to deallocate */
             if( sp - nwords <= fp + 2 ) {
                 runtimeError( "deallocating too many words");
             } else {
@@ -432,142 +1119,226 @@ public class StackMachine {
             }
             break;
         case POP: /* Discard the top of stack */
-            pop();
+            tracedPop();
             break;
         case DUP: /* Duplicate value on stack */
-            int val = pop();
-            push(val);
-            push(val);
+            int val = tracedPop();
+            tracedPush(val);
+            tracedPush(val);
             break;
         case SWAP: /* Swap top two values on stack */
-            int val1 = pop();
-            int val2 = pop();
-            push(val1);
-            push(val2);
+            int val1 = tracedPop();
+            int val2 = tracedPop();
+            tracedPush(val1);
+            tracedPush(val2);
             break;
         case DIV: /* Divide */
-            int divbottom = pop();
-            int divtop = pop();
+            int divbottom = tracedPop();
+            int divtop = tracedPop();
             if (divbottom == 0) {
                 runtimeError("divide by zero");
             } else {
-                push( divtop / divbottom );
+                tracedPush( divtop / divbottom );
             }
             break;
         case MPY: /* Multiply */
-            push(pop() * pop());
+            tracedPush(tracedPop() * tracedPop());
             break;
         case ADD: /* Add */
-            push(pop() + pop());
+            tracedPush(tracedPop() + tracedPop());
             break;
         case XOR: /* Bitwise XOR */
-            push(pop() ^ pop());
+            tracedPush(tracedPop() ^ tracedPop());
             break;
         case OR: /* Bitwise OR */
-            push(pop() | pop());
+            tracedPush(tracedPop() | tracedPop());
             break;
         case AND: /* Bitwise AND */
-            push(pop() & pop());
+            tracedPush(tracedPop() & tracedPop());
             break;
         case EQUAL: /* Test if top two values are equal */
-            push(pop() == pop() ? TRUE_VALUE : FALSE_VALUE);
+            tracedPush(tracedPop() == tracedPop() ? TRUE_VALUE : FALSE_VALUE);
             break;
         case LESS: /* Test if second top value < top value */
-            int top = pop();
-            int second = pop();
-            push(second < top ? TRUE_VALUE : FALSE_VALUE);
+            int top = tracedPop();
+            int second = tracedPop();
+            tracedPush(second < top ? TRUE_VALUE : FALSE_VALUE);
             break;
         case LESSEQ: /* Test if second top value <= top value */
-            top = pop();
-            second = pop();
-            push(second <= top ? TRUE_VALUE : FALSE_VALUE);
+            top = tracedPop();
+            second = tracedPop();
+            tracedPush(second <= top ? TRUE_VALUE : FALSE_VALUE);
             break;
         case NOT: /* Bitwise inversion */
-            push(~pop());
+            tracedPush(~tracedPop());
             break;
         case NEGATE: /* 2s complement */
-            push(-pop());
+            tracedPush(-tracedPop());
             break;
         case READ: /* Read a number from stdin */
             int read;
             try {
                 read = Integer.parseInt(in.readLine());
-                push(read);
+                tracedPush(read);
             } catch (Exception e) {
                 runtimeError( "invalid value read - must be an integer");
             }
             break;
         case WRITE: /* Write a number to stdout */
-            outStream.println(Integer.toString(pop()));
+            outStream.println(Integer.toString(tracedPop()));
             break;
         case BOUND: /* Check if index is within bounds, halt if not. 
                 This needs to be an instruction to write the error */
-            int upper = pop();
-            int lower = pop();
-            val = pop();
+            int upper = tracedPop();
+            int lower = tracedPop();
+            val = tracedPop();
             if (val < lower || val > upper) {
                 runtimeError("bounds check failed at " + (pc - 1) + ": "
                         + val + " not in " + lower + ".." + upper);
             }
-            push(val); /* push the value back on the stack */
+            tracedPush(val); /* push the value back on the stack */
             break;
         case TO_GLOBAL: /* Adjust local to global */
-            push( pop() + fp );
+            tracedPush( tracedPop() + fp );
             break;
         case TO_LOCAL: /* Adjust a global address to a frame-local one */
-            push(pop() - fp);
+            tracedPush(tracedPop() - fp);
             break;
         case LOAD_CON: /* Load a constant value from the following word */
-            push(memory[pc++]);
+            tracedPush(getWord( pc++ ));
             break;
         case LOAD_ABS: /* Load a value from address in top of stack */
-            address = pop();
-            push(loadValue(address));
+            address = tracedPop();
+            tracedPush(tracedLoadValue(address));
             break;
         case STORE_FRAME: /* Store a value into memory */
-            address = fp + pop();
-            int value = pop();
-            storeValue(address, value);
+            address = fp + tracedPop();
+            int value = tracedPop();
+            tracedStoreValue(address, value);
             break;
         case LOAD_FRAME: /* Load a value from memory frame relative */
-            address = fp + pop();
-            push(loadValue(address));
+            address = fp + tracedPop();
+            tracedPush(tracedLoadValue(address));
             break;
         case ZERO: /* Push 0 on the stack */
-            push(0);
+            tracedPush(0);
             break;
         case ONE: /* Push 1 on the stack */
-            push(1);
+            tracedPush(1);
             break;
         case ALLOC_HEAP: /* Allocate memory from heap */
-            int size = pop();
-            limit -= size;
-            push(limit); // will fail if limit less than sp
-            for(int i = limit; i < limit+size; i++ ) {
-                memory[i] = NULL_ADDR;
-            }
+            allocHeap( tracedPop(), true );
             break;
         case LOAD_MULTI: /* Load multiple words onto stack from
                             address on second top of stack */
-            int count = pop();        /* pop count of number of words */
-            address = fp + pop();     /* address relative to frame pointer */
+            int count = tracedPop();        /* pop count of number of words */
+            address = fp + tracedPop();     /* address relative to frame pointer */
+            if( !tracingWords() ) {
+                loadMulti( address, count );
+                break;
+            }
             while( count > 0 ) {
-                push(loadValue(address++));
+                tracedPush(tracedLoadValue(address++));
                 count--;
             }
             break;
         case STORE_MULTI: /* Store multiple words from stack to
                              address on second top of stack */
-            count = pop();        /* pop count of number of words */
-            address = fp + pop() + count; /* relative to frame pointer */
+            count = tracedPop();        /* pop count of number of words */
+            address = fp + tracedPop();     /* relative to frame pointer */
+            if( !tracingWords() ) {
+                storeMulti( address, count );
+                break;
+            }
+            address += count;
             while( count > 0 ) {
                 /* store from last location back (to match LOAD_MULTI) */
-                storeValue(--address, pop());
+                tracedStoreValue(--address, tracedPop());
                 count--;
             }
             break;
+        case LOAD_LOCAL: /* Load a value from the frame offset in the
+                            following word */
+            address = fp + getWord( pc++ );
+            tracedPush(tracedLoadValue(address));
+            break;
+        case STORE_LOCAL: /* Store a value at the frame offset in the
+                             following word */
+            address = fp + getWord( pc++ );
+            value = tracedPop();
+            tracedStoreValue(address, value);
+            break;
+        case ADD_CON: /* Add the constant in the following word */
+            val = getWord( pc++ );
+            tracedPush(tracedPop() + val);
+            break;
+        case BR_CON: /* Unconditional branch to offset in following word */
+            dest = getWord( pc++ );
+            pc += dest;       /* branch relative to next instruction */
+            if (tracing.contains(Trace.JUMPS)) {
+                outStream.print("\n      Branch => " + pc);
+            }
+            break;
+        case BR_FALSE_CON: /* If the top value = FALSE_VALUE, jump to the
+                              offset in the following word */
+            dest = getWord( pc++ );
+            test = tracedPop();
+            if (test == FALSE_VALUE) {
+                pc += dest;
+            } else if (test != TRUE_VALUE ) {
+                runtimeError("non-boolean operand in branch");
+            }
+            if (tracing.contains(Trace.JUMPS)) {
+                outStream.print("\n      Branch => " + pc);
+            }
+            break;
+        case BOUND_CON: /* Bounds check against the lower and upper bounds
+                           in the following two words */
+            lower = getWord( pc++ );
+            upper = getWord( pc++ );
+            val = tracedPop();
+            if (val < lower || val > upper) {
+                runtimeError("bounds check failed at " + (pc - 3) + ": "
+                        + val + " not in " + lower + ".." + upper);
+            }
+            tracedPush(val); /* push the value back on the stack */
+            break;
+        case TO_LOCAL_CHECKED: /* Adjust a pointer to a frame-local 
+                                  address, unless it is nil */
+            address = tracedPop();
+            if( address == NULL_ADDR ) {
+                runtimeError("nil pointer dereference");
+            } else {
+                tracedPush(address - fp);
+            }
+            break;
+        case LOAD_DISPLAY: /* Load a value from the offset in the frame at
+                              the static level in the following words */
+            address = displayAddress( getWord( pc ), getWord( pc + 1 ) );
+            pc += 2;
+            if( running ) {
+                tracedPush(tracedLoadValue(address));
+            }
+            break;
+        case STORE_DISPLAY: /* Store a value at the offset in the frame at
+                               the static level in the following words */
+            address = displayAddress( getWord( pc ), getWord( pc + 1 ) );
+            pc += 2;
+            if( running ) {
+                value = tracedPop();
+                tracedStoreValue(address, value);
+            }
+            break;
+        case REF_DISPLAY: /* Push the frame relative address of the offset
+                             in the frame at the static level */
+            address = displayAddress( getWord( pc ), getWord( pc + 1 ) );
+            pc += 2;
+            if( running ) {
+                tracedPush(address - fp);
+            }
+            break;
         case STOP: /* Halt */
-            int exitcode = pop();
+            int exitcode = tracedPop();
             switch( exitcode ) {
             case NIL_POINTER:
                 runtimeError("nil pointer dereference");
@@ -581,4 +1352,766 @@ public class StackMachine {
             runtimeError("opcode not implemented: " + inst );
         }
     }
+/**************************** Threaded Execution ****************************/
+    /** Check that the program counter is within the code after it has
+     * been changed by a branch, call or return. The checked interpreter
+     * performs this check when fetching the next instruction. */
+    private void checkBranch() {
+        if( running && (pc < CODE_START || pc >= currLocn) ) {
+            runtimeError( "PC = " + pc + " out of range of code" );
+        }
+    }
+    /** Execute the threaded form of the code until the machine stops.
+     * Each case mirrors the corresponding case of execInstruction.
+     * The stack is pushed and popped without checks: the procedures
+     * have been verified, and on each call space for the greatest depth
+     * of the stack in the procedure called is reserved between the
+     * stack and the heap. If the procedure called has not been verified
+     * or the space cannot be reserved (without a garbage collection
+     * that execInstruction would not make), or the heap is extended
+     * into the reserved space, execution continues with execInstruction.
+     * @param code pre-decoded threaded form of the code region
+     */
+    private void execThreaded( ThreadedCode code ) {
+        final int[] ops = code.ops;
+        final int[] args = code.args;
+        final int base = code.start;
+        int address;
+        long executed = 0;
+        /* Top of the space reserved for the current frame */
+        int reserve = reserveFrame( fp, pc );
+        /* Reserve, frame pointer and return address saved by each call */
+        int[] calls = new int[ 3 * 16 ];
+        int callCount = 0;
+        execution:
+        while( running && reserve >= 0 ) {
+            executed++;
+            int index = pc - base;
+            pc++;
+            switch( ops[index] ) {
+            case ThreadedCode.INVALID:
+                runtimeError( "invalid opcode" );
+                break;
+            case ThreadedCode.END:
+                pc--;
+                runtimeError( "PC = " + pc + " out of range of code" );
+                break;
+            case ThreadedCode.NO_OP:
+                break;
+            case ThreadedCode.BR:
+                pc += popUnchecked();
+                checkBranch();
+                break;
+            case ThreadedCode.BR_FALSE:
+                int dest = popUnchecked();
+                int test = popUnchecked();
+                if( test == FALSE_VALUE ) {
+                    pc += dest;
+                    checkBranch();
+                } else if( test != TRUE_VALUE ) {
+                    runtimeError("non-boolean operand in branch");
+                }
+                break;
+            case ThreadedCode.COPY:
+                int copySize = popUnchecked();
+                int toAddr = fp + popUnchecked();
+                copyBlock( fp + popUnchecked(), toAddr, copySize );
+                break;
+            case ThreadedCode.CALL:
+                int addr = stackMemory.get( sp - 1 );
+                int calleeReserve = reserveFrame( sp - 2, addr );
+                if( calleeReserve < 0 ) {
+                    /* Leave the call to execInstruction */
+                    pc--;
+                    executed--;
+                    break execution;
+                }
+                if( callCount == calls.length ) {
+                    calls = Arrays.copyOf( calls, 2 * calls.length );
+                }
+                calls[callCount++] = reserve;
+                calls[callCount++] = fp;
+                calls[callCount++] = pc;
+                reserve = calleeReserve;
+                sp--;
+                pushUnchecked( fp );
+                fp = sp - 2;
+                pushUnchecked( pc );
+                pc = addr;
+                if( display != null ) {
+                    enterDisplay( addr );
+                }
+                break;
+            case ThreadedCode.RETURN:
+                sp = fp + 3;
+                pc = popUnchecked();
+                fp = popUnchecked();
+                popUnchecked();
+                if( display != null ) {
+                    leaveDisplay();
+                }
+                if( pc == 0 ) {
+                    running = false;
+                } else if( callCount > 0 && calls[callCount - 1] == pc &&
+                        calls[callCount - 2] == fp ) {
+                    callCount -= 3;
+                    reserve = calls[callCount];
+                } else {
+                    /* Not a return from a call made here */
+                    checkBranch();
+                    break execution;
+                }
+                break;
+            case ThreadedCode.ALLOC_STACK:
+                allocStack( popUnchecked() );
+                break;
+            case ThreadedCode.DEALLOC_STACK:
+                int nwords = popUnchecked();
+                if( sp - nwords <= fp + 2 ) {
+                    runtimeError( "deallocating too many words");
+                } else {
+                    sp -= nwords;
+                }
+                break;
+            case ThreadedCode.POP:
+                popUnchecked();
+                break;
+            case ThreadedCode.DUP:
+                int val = popUnchecked();
+                pushUnchecked( val );
+                pushUnchecked( val );
+                break;
+            case ThreadedCode.SWAP:
+                int val1 = popUnchecked();
+                int val2 = popUnchecked();
+                pushUnchecked( val1 );
+                pushUnchecked( val2 );
+                break;
+            case ThreadedCode.ADD:
+                pushUnchecked( popUnchecked() + popUnchecked() );
+                break;
+            case ThreadedCode.MPY:
+                pushUnchecked( popUnchecked() * popUnchecked() );
+                break;
+            case ThreadedCode.DIV:
+                int divbottom = popUnchecked();
+                int divtop = popUnchecked();
+                if( divbottom == 0 ) {
+                    runtimeError( "divide by zero" );
+                } else {
+                    pushUnchecked( divtop / divbottom );
+                }
+                break;
+            case ThreadedCode.OR:
+                pushUnchecked( popUnchecked() | popUnchecked() );
+                break;
+            case ThreadedCode.AND:
+                pushUnchecked( popUnchecked() & popUnchecked() );
+                break;
+            case ThreadedCode.XOR:
+                pushUnchecked( popUnchecked() ^ popUnchecked() );
+                break;
+            case ThreadedCode.EQUAL:
+                pushUnchecked( popUnchecked() == popUnchecked() ? TRUE_VALUE : FALSE_VALUE );
+                break;
+            case ThreadedCode.LESS:
+                int top = popUnchecked();
+                int second = popUnchecked();
+                pushUnchecked( second < top ? TRUE_VALUE : FALSE_VALUE );
+                break;
+            case ThreadedCode.LESSEQ:
+                top = popUnchecked();
+                second = popUnchecked();
+                pushUnchecked( second <= top ? TRUE_VALUE : FALSE_VALUE );
+                break;
+            case ThreadedCode.NOT:
+                pushUnchecked( ~popUnchecked() );
+                break;
+            case ThreadedCode.NEGATE:
+                pushUnchecked( -popUnchecked() );
+                break;
+            case ThreadedCode.READ:
+                try {
+                    pushUnchecked( Integer.parseInt( in.readLine() ) );
+                } catch( Exception e ) {
+                    runtimeError( "invalid value read - must be an integer" );
+                }
+                break;
+            case ThreadedCode.WRITE:
+                outStream.println( Integer.toString( popUnchecked() ) );
+                break;
+            case ThreadedCode.BOUND:
+                int upper = popUnchecked();
+                int lower = popUnchecked();
+                val = popUnchecked();
+                if( val < lower || val > upper ) {
+                    runtimeError( "bounds check failed at " + (pc - 1) + ": "
+                            + val + " not in " + lower + ".." + upper );
+                }
+                pushUnchecked( val );
+                break;
+            case ThreadedCode.TO_GLOBAL:
+                pushUnchecked( popUnchecked() + fp );
+                break;
+            case ThreadedCode.TO_LOCAL:
+                pushUnchecked( popUnchecked() - fp );
+                break;
+            case ThreadedCode.LOAD_CON:
+                pc++;
+                pushUnchecked( args[index] );
+                break;
+            case ThreadedCode.LOAD_ABS:
+                address = popUnchecked();
+                pushUnchecked( loadValue(address) );
+                break;
+            case ThreadedCode.STORE_FRAME:
+                address = fp + popUnchecked();
+                int value = popUnchecked();
+                storeValue( address, value );
+                break;
+            case ThreadedCode.LOAD_FRAME:
+                address = fp + popUnchecked();
+                pushUnchecked( loadValue(address) );
+                break;
+            case ThreadedCode.ZERO:
+                pushUnchecked( 0 );
+                break;
+            case ThreadedCode.ONE:
+                pushUnchecked( 1 );
+                break;
+            case ThreadedCode.ALLOC_HEAP:
+                allocHeap( popUnchecked(), false );
+                if( limit < reserve ) {
+                    break execution;
+                } else if( stackMemory.size() < reserve ) {
+                    growStack( reserve );
+                }
+                break;
+            case ThreadedCode.LOAD_MULTI:
+                int count = popUnchecked();
+                loadMulti( fp + popUnchecked(), count );
+                break;
+            case ThreadedCode.STORE_MULTI:
+                count = popUnchecked();
+                storeMulti( fp + popUnchecked(), count );
+                break;
+            case ThreadedCode.LOAD_LOCAL:
+                pc++;
+                pushUnchecked( loadValue(fp + args[index]) );
+                break;
+            case ThreadedCode.STORE_LOCAL:
+                pc++;
+                storeValue( fp + args[index], popUnchecked() );
+                break;
+            case ThreadedCode.ADD_CON:
+                pc++;
+                pushUnchecked( popUnchecked() + args[index] );
+                break;
+            case ThreadedCode.BR_CON:
+                pc += 1 + args[index];
+                checkBranch();
+                break;
+            case ThreadedCode.BR_FALSE_CON:
+                pc++;
+                test = popUnchecked();
+                if( test == FALSE_VALUE ) {
+                    pc += args[index];
+                    checkBranch();
+                } else if( test != TRUE_VALUE ) {
+                    runtimeError("non-boolean operand in branch");
+                }
+                break;
+            case ThreadedCode.BOUND_CON:
+                pc += 2;
+                lower = args[index];
+                upper = args[index + 1];
+                val = popUnchecked();
+                if( val < lower || val > upper ) {
+                    runtimeError( "bounds check failed at " + (pc - 3) + ": "
+                            + val + " not in " + lower + ".." + upper );
+                }
+                pushUnchecked( val );
+                break;
+            case ThreadedCode.TO_LOCAL_CHECKED:
+                address = popUnchecked();
+                if( address == NULL_ADDR ) {
+                    runtimeError( "nil pointer dereference" );
+                } else {
+                    pushUnchecked( address - fp );
+                }
+                break;
+            case ThreadedCode.LOAD_DISPLAY:
+                pc += 2;
+                address = displayAddress( args[index], args[index + 1] );
+                if( running ) {
+                    pushUnchecked( loadValue(address) );
+                }
+                break;
+            case ThreadedCode.STORE_DISPLAY:
+                pc += 2;
+                address = displayAddress( args[index], args[index + 1] );
+                if( running ) {
+                    storeValue( address, popUnchecked() );
+                }
+                break;
+            case ThreadedCode.REF_DISPLAY:
+                pc += 2;
+                address = displayAddress( args[index], args[index + 1] );
+                if( running ) {
+                    pushUnchecked( address - fp );
+                }
+                break;
+            case ThreadedCode.STOP:
+                int exitcode = popUnchecked();
+                switch( exitcode ) {
+                case NIL_POINTER:
+                    runtimeError( "nil pointer dereference" );
+                    break;
+                default:
+                    runtimeError( "machine halted with code " + exitcode );
+                    break;
+                }
+                break;
+            }
+        }
+        instructionCount += executed;
+        execChecked();
+    }
+    /** Reserve the space for the stack of an activation of a verified 
+     * procedure, growing the stack memory if need be.
+     * @param frame address of the frame of the activation
+     * @param entry address of the entry point of the procedure
+     * @return address one past the top of the space reserved, or -1 if the
+     *  procedure has not been verified or the space is not available
+     */
+    private int reserveFrame( int frame, int entry ) {
+        if( entry < CODE_START || currLocn <= entry ||
+                frameDepths[entry - CODE_START] == 0 ) {
+            return -1;
+        }
+        int reserve = frame + frameDepths[entry - CODE_START];
+        if( reserve > limit ) {
+            return -1;
+        }
+        if( reserve > stackMemory.size() ) {
+            growStack( reserve );
+        }
+        return reserve;
+    }
+    /** Record the activation just entered at the entry point in the
+     * display, saving the entry it replaces */
+    private void enterDisplay( int entry ) {
+        int level = CODE_START <= entry && entry < currLocn ? 
+                entryLevels[entry - CODE_START] : 0;
+        if( displayCount == displaySaved.length ) {
+            displaySaved = Arrays.copyOf( displaySaved, 
+                    2 * displaySaved.length );
+        }
+        displaySaved[displayCount++] = level;
+        displaySaved[displayCount++] = display[level];
+        display[level] = fp;
+    }
+    /** Restore the display entry replaced by the activation returned from */
+    private void leaveDisplay() {
+        if( displayCount > 0 ) {
+            int saved = displaySaved[--displayCount];
+            display[displaySaved[--displayCount]] = saved;
+        }
+    }
+    /** @return address of the word at offset in the frame of the current
+     * activation at the static level */
+    private int displayAddress( int level, int offset ) {
+        if( display == null || level < 0 || display.length <= level ) {
+            runtimeError( "invalid display level " + level );
+            return 0;
+        }
+        return display[level] + offset;
+    }
+    /** Push the value onto the stack without checking for overflow */
+    private void pushUnchecked( int val ) {
+        stackMemory.set( sp++, val );
+    }
+    /** Pop the top value from the stack without checking for underflow */
+    private int popUnchecked( ) {
+        return stackMemory.get( --sp );
+    }
+    /** Execute the instructions one at a time with execInstruction
+     * until the machine stops */
+    private void execChecked( ) {
+        while( running ) {
+            instructionCount++;
+            execInstruction();
+        }
+    }
+/************************ Top of Stack Cached Execution *********************/
+    /** Execute the threaded form of the code until the machine stops,
+     * keeping the top of stack in a local variable.
+     * While sp > STACK_START the value on top of the stack is held in top
+     * and memory[sp-1] may be out of date; all other stack words are
+     * held in memory. The instructions that only manipulate the
+     * expression stack and the frame are handled on the cached state.
+     * Any other instruction, or any instruction that would cause a
+     * runtime error, is handed to execInstruction after the cached state
+     * has been written back (the instruction has had no effect at that
+     * point), so that runtime errors are reported exactly as by run().
+     * @param code pre-decoded threaded form of the code region
+     */
+    private void execCached( ThreadedCode code ) {
+        final int[] ops = code.ops;
+        final int[] args = code.args;
+        final int base = code.start;
+        final int finish = code.finish;
+        /* Cached registers */
+        int p = pc;
+        int s = sp;
+        int f = fp;
+        int lim = limit;
+        /* Cached memory arrays - these change if memory grows */
+        int[] mem = ((ArrayMemory)stackMemory).words;
+        int[] high = ((ArrayMemory)highMemory).words;
+        int hb = highBase;
+        int top = s > STACK_START ? mem[s - 1] : 0;
+        int address, value, dest;
+        long executed = 0;
+        dispatch:
+        while( running ) {
+            executed++;
+            int index = p - base;
+            switch( ops[index] ) {
+            case ThreadedCode.NO_OP:
+                p++;
+                continue dispatch;
+            case ThreadedCode.BR:
+                if( s < 2 ) {
+                    break;
+                }
+                dest = p + 1 + top;
+                if( dest < base || dest >= finish ) {
+                    break;
+                }
+                p = dest;
+                s--;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.BR_FALSE:
+                if( s < 3 ) {
+                    break;
+                }
+                value = mem[s - 2];
+                dest = p + 1;
+                if( value == FALSE_VALUE ) {
+                    dest += top;
+                } else if( value != TRUE_VALUE ) {
+                    break;
+                }
+                if( dest < base || dest >= finish ) {
+                    break;
+                }
+                p = dest;
+                s -= 2;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.POP:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                s--;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.DUP:
+                if( s < 1 || s >= mem.length ) {
+                    break;
+                }
+                p++;
+                mem[s - 1] = top;
+                s++;
+                continue dispatch;
+            case ThreadedCode.SWAP:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                value = mem[s - 2];
+                mem[s - 2] = top;
+                top = value;
+                continue dispatch;
+            case ThreadedCode.ADD:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] + top;
+                continue dispatch;
+            case ThreadedCode.MPY:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] * top;
+                continue dispatch;
+            case ThreadedCode.DIV:
+                if( s < 2 || top == 0 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] / top;
+                continue dispatch;
+            case ThreadedCode.OR:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] | top;
+                continue dispatch;
+            case ThreadedCode.AND:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] & top;
+                continue dispatch;
+            case ThreadedCode.XOR:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] ^ top;
+                continue dispatch;
+            case ThreadedCode.EQUAL:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] == top ? TRUE_VALUE : FALSE_VALUE;
+                continue dispatch;
+            case ThreadedCode.LESS:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] < top ? TRUE_VALUE : FALSE_VALUE;
+                continue dispatch;
+            case ThreadedCode.LESSEQ:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                top = mem[--s - 1] <= top ? TRUE_VALUE : FALSE_VALUE;
+                continue dispatch;
+            case ThreadedCode.NOT:
+                if( s < 1 ) {
+                    break;
+                }
+                p++;
+                top = ~top;
+                continue dispatch;
+            case ThreadedCode.NEGATE:
+                if( s < 1 ) {
+                    break;
+                }
+                p++;
+                top = -top;
+                continue dispatch;
+            case ThreadedCode.WRITE:
+                if( s < 2 ) {
+                    break;
+                }
+                p++;
+                outStream.println( Integer.toString( top ) );
+                s--;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.BOUND:
+                if( s < 3 ) {
+                    break;
+                }
+                value = mem[s - 3];
+                if( value < mem[s - 2] || value > top ) {
+                    break;
+                }
+                p++;
+                s -= 2;
+                top = value;
+                continue dispatch;
+            case ThreadedCode.TO_GLOBAL:
+                if( s < 1 ) {
+                    break;
+                }
+                p++;
+                top = top + f;
+                continue dispatch;
+            case ThreadedCode.TO_LOCAL:
+                if( s < 1 ) {
+                    break;
+                }
+                p++;
+                top = top - f;
+                continue dispatch;
+            case ThreadedCode.TO_LOCAL_CHECKED:
+                if( s < 1 || top == NULL_ADDR ) {
+                    break;
+                }
+                p++;
+                top = top - f;
+                continue dispatch;
+            case ThreadedCode.LOAD_CON:
+                if( s < 1 || s >= mem.length ) {
+                    break;
+                }
+                p += 2;
+                mem[s - 1] = top;
+                s++;
+                top = args[index];
+                continue dispatch;
+            case ThreadedCode.ZERO:
+            case ThreadedCode.ONE:
+                if( s < 1 || s >= mem.length ) {
+                    break;
+                }
+                mem[s - 1] = top;
+                s++;
+                top = ops[index] == ThreadedCode.ZERO ? 0 : 1;
+                p++;
+                continue dispatch;
+            case ThreadedCode.LOAD_FRAME:
+            case ThreadedCode.LOAD_ABS:
+                if( s < 1 ) {
+                    break;
+                }
+                address = ops[index] == ThreadedCode.LOAD_FRAME ? 
+                        f + top : top;
+                /* The word at s-1 is cached and those from s up to the
+                 * heap are unused, so leave those to execInstruction */
+                if( 0 <= address && address < s - 1 ) {
+                    value = mem[address];
+                } else if( lim <= address && address < hb + high.length ) {
+                    value = high[address - hb];
+                } else {
+                    break;
+                }
+                p++;
+                top = value;
+                continue dispatch;
+            case ThreadedCode.STORE_FRAME:
+                if( s < 3 ) {
+                    break;
+                }
+                address = f + top;
+                if( 0 <= address && address < mem.length ) {
+                    mem[address] = mem[s - 2];
+                } else if( hb <= address && address < CODE_START ) {
+                    high[address - hb] = mem[s - 2];
+                } else {
+                    break;
+                }
+                p++;
+                s -= 2;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.LOAD_LOCAL:
+                if( s < 1 || s >= mem.length ) {
+                    break;
+                }
+                address = f + args[index];
+                if( 0 <= address && address < s - 1 ) {
+                    value = mem[address];
+                } else if( lim <= address && address < hb + high.length ) {
+                    value = high[address - hb];
+                } else {
+                    break;
+                }
+                p += 2;
+                mem[s - 1] = top;
+                s++;
+                top = value;
+                continue dispatch;
+            case ThreadedCode.STORE_LOCAL:
+                if( s < 2 ) {
+                    break;
+                }
+                address = f + args[index];
+                if( 0 <= address && address < mem.length ) {
+                    mem[address] = top;
+                } else if( hb <= address && address < CODE_START ) {
+                    high[address - hb] = top;
+                } else {
+                    break;
+                }
+                p += 2;
+                s--;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.ADD_CON:
+                if( s < 1 ) {
+                    break;
+                }
+                p += 2;
+                top += args[index];
+                continue dispatch;
+            case ThreadedCode.BR_CON:
+                dest = p + 2 + args[index];
+                if( dest < base || dest >= finish ) {
+                    break;
+                }
+                p = dest;
+                continue dispatch;
+            case ThreadedCode.BR_FALSE_CON:
+                if( s < 2 ) {
+                    break;
+                }
+                dest = p + 2;
+                if( top == FALSE_VALUE ) {
+                    dest += args[index];
+                } else if( top != TRUE_VALUE ) {
+                    break;
+                }
+                if( dest < base || dest >= finish ) {
+                    break;
+                }
+                p = dest;
+                s--;
+                top = mem[s - 1];
+                continue dispatch;
+            case ThreadedCode.BOUND_CON:
+                if( s < 1 || top < args[index] || top > args[index + 1] ) {
+                    break;
+                }
+                p += 3;
+                continue dispatch;
+            default:
+                /* Not handled on the cached state */
+                break;
+            }
+            /* Write back the cached state and let the checked interpreter
+             * execute the instruction */
+            pc = p;
+            sp = s;
+            fp = f;
+            if( s > STACK_START ) {
+                mem[s - 1] = top;
+            }
+            execInstruction();
+            if( running && (pc < base || pc >= finish) ) {
+                /* Report the pc out of range */
+                executed++;
+                execInstruction();
+            }
+            p = pc;
+            s = sp;
+            f = fp;
+            lim = limit;
+            mem = ((ArrayMemory)stackMemory).words;
+            high = ((ArrayMemory)highMemory).words;
+            hb = highBase;
+            top = s > STACK_START ? mem[s - 1] : 0;
+        }
+        pc = p;
+        sp = s;
+        fp = f;
+        if( s > STACK_START ) {
+            mem[s - 1] = top;
+        }
+        instructionCount += executed;
+    }
 }
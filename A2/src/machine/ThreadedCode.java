@@ -0,0 +1,167 @@
+package machine;
+
+/**
+ * class ThreadedCode - pre-decoded form of the code region of the stack
+ * machine, as used by the threaded execution engine.
+ * Every word of the code region is decoded (once) as if it were an opcode,
+ * so that a branch into the middle of an instruction behaves exactly as it
+ * does for the checked interpreter. Invalid opcodes decode to INVALID and
+ * the words just past the end of the code decode to END, so that falling
+ * off the end of the code is detected without a per-instruction check.
+ * The operand word following each word (e.g. the constant of a LOAD_CON)
+ * is folded into the args array. An instruction with two operands finds
+ * its second operand in the args entry of the following word.
+ */
+final class ThreadedCode {
+    /* Handler codes of the threaded form. These are independent of
+     * the ordinals of the Operation enumeration. */
+    static final int INVALID = 0;
+    static final int END = 1;
+    static final int NO_OP = 2;
+    static final int BR = 3;
+    static final int BR_FALSE = 4;
+    static final int COPY = 5;
+    static final int CALL = 6;
+    static final int RETURN = 7;
+    static final int ALLOC_STACK = 8;
+    static final int DEALLOC_STACK = 9;
+    static final int POP = 10;
+    static final int DUP = 11;
+    static final int SWAP = 12;
+    static final int ADD = 13;
+    static final int MPY = 14;
+    static final int DIV = 15;
+    static final int OR = 16;
+    static final int AND = 17;
+    static final int XOR = 18;
+    static final int EQUAL = 19;
+    static final int LESS = 20;
+    static final int LESSEQ = 21;
+    static final int NOT = 22;
+    static final int NEGATE = 23;
+    static final int READ = 24;
+    static final int WRITE = 25;
+    static final int BOUND = 26;
+    static final int TO_GLOBAL = 27;
+    static final int TO_LOCAL = 28;
+    static final int LOAD_CON = 29;
+    static final int LOAD_ABS = 30;
+    static final int STORE_FRAME = 31;
+    static final int LOAD_FRAME = 32;
+    static final int ZERO = 33;
+    static final int ONE = 34;
+    static final int ALLOC_HEAP = 35;
+    static final int LOAD_MULTI = 36;
+    static final int STORE_MULTI = 37;
+    static final int STOP = 38;
+    static final int LOAD_LOCAL = 39;
+    static final int STORE_LOCAL = 40;
+    static final int ADD_CON = 41;
+    static final int BR_CON = 42;
+    static final int BR_FALSE_CON = 43;
+    static final int BOUND_CON = 44;
+    static final int TO_LOCAL_CHECKED = 45;
+    static final int LOAD_DISPLAY = 46;
+    static final int STORE_DISPLAY = 47;
+    static final int REF_DISPLAY = 48;
+
+    /** Address of the first word of code */
+    final int start;
+    /** Address one past the last word of code */
+    final int finish;
+    /** Handler code for each word, indexed by (address - start) */
+    final int[] ops;
+    /** Word following each word, indexed by (address - start) */
+    final int[] args;
+
+    /** Decode the words at addresses [start, finish).
+     * @param memory of the stack machine holding the code
+     * @param base address of the first word of memory
+     * @param start address of the first word of code
+     * @param finish address one past the last word of code
+     * @param fill value of memory words outside the memory array
+     */
+    ThreadedCode( Memory memory, int base, int start, int finish, int fill ) {
+        this.start = start;
+        this.finish = finish;
+        int pad = maxInstructionSize();
+        ops = new int[ finish - start + pad ];
+        args = new int[ finish - start + pad ];
+        Operation[] operations = Operation.values();
+        for( int addr = start; addr < finish; addr++ ) {
+            int word = memory.get( addr - base );
+            if( word < 0 || operations.length <= word ) {
+                ops[addr - start] = INVALID;
+            } else {
+                ops[addr - start] = decode( operations[word] );
+            }
+            args[addr - start] = addr + 1 - base < memory.size() ?
+                    memory.get( addr + 1 - base ) : fill;
+        }
+        for( int i = finish - start; i < ops.length; i++ ) {
+            ops[i] = END;
+            args[i] = fill;
+        }
+    }
+    /** Size in words of the largest instruction */
+    private static int maxInstructionSize() {
+        int max = 1;
+        for( Operation op : Operation.values() ) {
+            max = Math.max( max, op.getSize() );
+        }
+        return max;
+    }
+    /** Map an operation onto its handler code */
+    private static int decode( Operation op ) {
+        switch( op ) {
+        case NO_OP:         return NO_OP;
+        case BR:            return BR;
+        case BR_FALSE:      return BR_FALSE;
+        case COPY:          return COPY;
+        case CALL:          return CALL;
+        case RETURN:        return RETURN;
+        case ALLOC_STACK:   return ALLOC_STACK;
+        case DEALLOC_STACK: return DEALLOC_STACK;
+        case POP:           return POP;
+        case DUP:           return DUP;
+        case SWAP:          return SWAP;
+        case ADD:           return ADD;
+        case MPY:           return MPY;
+        case DIV:           return DIV;
+        case OR:            return OR;
+        case AND:           return AND;
+        case XOR:           return XOR;
+        case EQUAL:         return EQUAL;
+        case LESS:          return LESS;
+        case LESSEQ:        return LESSEQ;
+        case NOT:           return NOT;
+        case NEGATE:        return NEGATE;
+        case READ:          return READ;
+        case WRITE:         return WRITE;
+        case BOUND:         return BOUND;
+        case TO_GLOBAL:     return TO_GLOBAL;
+        case TO_LOCAL:      return TO_LOCAL;
+        case LOAD_CON:      return LOAD_CON;
+        case LOAD_ABS:      return LOAD_ABS;
+        case STORE_FRAME:   return STORE_FRAME;
+        case LOAD_FRAME:    return LOAD_FRAME;
+        case ZERO:          return ZERO;
+        case ONE:           return ONE;
+        case ALLOC_HEAP:    return ALLOC_HEAP;
+        case LOAD_MULTI:    return LOAD_MULTI;
+        case STORE_MULTI:   return STORE_MULTI;
+        case STOP:          return STOP;
+        case LOAD_LOCAL:    return LOAD_LOCAL;
+        case STORE_LOCAL:   return STORE_LOCAL;
+        case ADD_CON:       return ADD_CON;
+        case BR_CON:        return BR_CON;
+        case BR_FALSE_CON:  return BR_FALSE_CON;
+        case BOUND_CON:     return BOUND_CON;
+        case TO_LOCAL_CHECKED: return TO_LOCAL_CHECKED;
+        case LOAD_DISPLAY:  return LOAD_DISPLAY;
+        case STORE_DISPLAY: return STORE_DISPLAY;
+        case REF_DISPLAY:   return REF_DISPLAY;
+        default:            return INVALID;
+        }
+    }
+}
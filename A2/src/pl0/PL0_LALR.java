@@ -1,4 +1,5 @@
 package pl0;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
@@ -10,8 +11,12 @@ import source.Errors;
 import source.Source;
 import tree.CodeGenerator;
 import tree.DeclNode;
+import tree.NilCheckEliminator;
+import tree.ObjectFile;
+import tree.PeepholeOptimizer;
 import tree.Procedures;
 import tree.StaticChecker;
+import tree.Superinstructions;
 import machine.StackMachine;
 
 /** 
@@ -28,10 +33,28 @@ public class PL0_LALR {
     public static void usage() {
         outStream.println(
             "PL0 Compiler\n" +
-            "Usage: java pl0.PL0_LALR [-cdhptv] <filename>\n"+
+            "Usage: java pl0.PL0_LALR [-abcdehilmnoprstv] <filename>\n"+
             "  -d  =  debug messages on\n" +
             "  -p  =  parse only (no static check or code gen)\n" +
             "  -c  =  parse and static check only (no code gen)\n" +
+            "  -e  =  eliminate nil checks on pointers shown not to be nil\n" +
+            "  -l  =  address non-local variables through a display of\n" +
+            "         frame pointers by static level\n" +
+            "  -r  =  threaded code engine with top of stack in a register\n" +
+            "  -o  =  peephole optimize generated code using all rules\n" +
+            "  -o=<rules> peephole optimize using the comma separated\n" +
+            "         rules or rule sets (size, speed, all)\n" +
+            "  -s  =  fuse instruction sequences into superinstructions\n" +
+            "  -m=<data>[,<code>] maximum size in words of the stack and\n" +
+            "         heap together, and of the code (default " +
+            StackMachine.DEFAULT_DATA_SIZE + "," + 
+            StackMachine.DEFAULT_CODE_SIZE + ")\n" +
+            "  -n  =  hold the stack machine memory off the Java heap\n" +
+            "  -i  =  print count of instructions executed\n" +
+            "  -a  =  profile heap allocation by allocation site\n" +
+            "  -b  =  keep the generated code in the object file\n" +
+            "         <filename>" + ObjectFile.SUFFIX + " and run it from there" +
+            " when it is up to date\n" +
             "  -v  =  verbose output of generated code\n" +
             "  -t  =  trace execution of resulting code\n" +
             "  -h  =  output this usage information\n" +
@@ -56,6 +79,27 @@ public class PL0_LALR {
         boolean genCode = true;
         /** Detailed trace of execution */
         boolean tracing = false;
+        /** Nil check elimination, if requested */
+        NilCheckEliminator nilChecks = null;
+        /** Address non-local variables through the display */
+        boolean display = false;
+        /** Peephole optimizer, if optimization requested */
+        PeepholeOptimizer optimizer = null;
+        /** Fuse instruction sequences into superinstructions */
+        boolean superinstructions = false;
+        /** Profile heap allocation */
+        boolean heapProfile = false;
+        /** Print execution statistics */
+        boolean statistics = false;
+        /** Hold the stack machine memory off the Java heap */
+        boolean offHeap = false;
+        /** Use the top of stack caching threaded code execution engine */
+        boolean cached = false;
+        /** Keep the generated code in an object file */
+        boolean objectFile = false;
+        /** Options that affect the generated code, which must match
+         * those the object file was compiled with */
+        StringBuilder codeOptions = new StringBuilder();
         /** Verbose output of code generation */
         boolean verbose = false;
         /** Debug mode for parser - quite verbose */
@@ -64,6 +108,9 @@ public class PL0_LALR {
         /* Parse command line */
         for( String arg : args ) {
             if( arg.charAt(0) == '-' ) { /* Option */
+                if( "elosm".indexOf( arg.charAt(1) ) >= 0 ) {
+                    codeOptions.append( arg ).append( ' ' );
+                }
                 switch( arg.charAt(1) ) {
                 case 'd': /* Debug parse */
                     debug = true;
@@ -75,6 +122,62 @@ public class PL0_LALR {
                 case 'c': /* Parse and static check only */
                     genCode = false;
                     break;
+                case 'e': /* Nil check elimination */
+                    nilChecks = new NilCheckEliminator();
+                    break;
+                case 'l': /* Display addressing of non-local variables */
+                    display = true;
+                    break;
+                case 'o': /* Peephole optimization */
+                    if( arg.startsWith( "-o=" ) ) {
+                        try {
+                            optimizer = PeepholeOptimizer.forRules( 
+                                    arg.substring( 3 ) );
+                        } catch( IllegalArgumentException e ) {
+                            outStream.println( e.getMessage() );
+                            usage();
+                            System.exit(1);
+                        }
+                    } else {
+                        optimizer = new PeepholeOptimizer();
+                    }
+                    break;
+                case 'm': /* Memory segment sizes */
+                    try {
+                        String[] sizes = arg.split( "[=,]" );
+                        if( !arg.startsWith( "-m=" ) || sizes.length < 2 ||
+                                sizes.length > 3 ) {
+                            throw new IllegalArgumentException( 
+                                    "Invalid memory size " + arg );
+                        }
+                        StackMachine.setMemorySize( 
+                                Integer.parseInt( sizes[1] ),
+                                sizes.length > 2 ? Integer.parseInt( sizes[2] )
+                                        : StackMachine.DEFAULT_CODE_SIZE );
+                    } catch( IllegalArgumentException e ) {
+                        outStream.println( e.getMessage() );
+                        usage();
+                        System.exit(1);
+                    }
+                    break;
+                case 'n': /* Off heap memory */
+                    offHeap = true;
+                    break;
+                case 's': /* Superinstructions */
+                    superinstructions = true;
+                    break;
+                case 'i': /* Instruction count statistics */
+                    statistics = true;
+                    break;
+                case 'a': /* Heap allocation profile */
+                    heapProfile = true;
+                    break;
+                case 'r': /* Register cached top of stack engine */
+                    cached = true;
+                    break;
+                case 'b': /* Object file */
+                    objectFile = true;
+                    break;
                 case 'v': /* Verbose output (of generated code) */
                     verbose = true;
                     break;
@@ -100,16 +203,53 @@ public class PL0_LALR {
             src = new Source( srcFile );
             /* Set up the error handler reference */
             errors = new ErrorHandler( outStream, src, debug );
-            /* Compile the program */
-            code = compile( src, errors, verbose, staticCheck, genCode, debug );
+            File objFile = ObjectFile.forSource( srcFile );
+            if( objectFile && genCode && 
+                    ObjectFile.isUpToDate( objFile, srcFile ) ) {
+                /* Load the code compiled previously */
+                try {
+                    code = ObjectFile.read( objFile, codeOptions.toString() );
+                } catch( IOException e ) {
+                    outStream.println( "Cannot read " + objFile + ": " + 
+                            e.getMessage() );
+                }
+                if( code != null ) {
+                    outStream.println( "Loaded " + objFile );
+                }
+            }
+            if( code == null ) {
+                /* Compile the program */
+                code = compile( src, errors, verbose, staticCheck, genCode,
+                        debug, nilChecks, display );
+                if( code != null ) {
+                    improveCode( code, nilChecks, optimizer, 
+                            superinstructions, statistics );
+                    if( objectFile && !errors.hadErrors() ) {
+                        try {
+                            ObjectFile.write( code, objFile, 
+                                    codeOptions.toString() );
+                        } catch( IOException e ) {
+                            outStream.println( "Cannot write " + objFile +
+                                    ": " + e.getMessage() );
+                        }
+                    }
+                }
+            }
             if( code != null ) { /* run it if possible */
                 StackMachine machine;
-                machine = new StackMachine( errors, outStream, verbose, code );
+                machine = new StackMachine( errors, outStream, verbose, code,
+                        offHeap );
                 if( genCode ) {
                     outStream.println( "Running ..." );
                     machine.setTracing( tracing ? StackMachine.TRACE_ALL 
                                      : StackMachine.TRACE_NONE );
-                    machine.run();
+                    machine.setStatistics( statistics );
+                    machine.setHeapProfiling( heapProfile );
+                    if( cached ) {
+                        machine.runCached();
+                    } else {
+                        machine.run();
+                    }
                 }
             }
         } catch( IOException e ) {
@@ -118,6 +258,31 @@ public class PL0_LALR {
         }
     }
 
+    /** Apply the requested improvements to the generated code
+     * @param code generated code for procedures
+     * @param nilChecks nil check elimination applied, or null
+     * @param optimizer peephole optimizer to be applied, or null
+     * @param superinstructions fuse instruction sequences
+     * @param statistics print statistics of the improvements
+     */
+    private static void improveCode( Procedures code, 
+            NilCheckEliminator nilChecks, PeepholeOptimizer optimizer,
+            boolean superinstructions, boolean statistics ) {
+        if( nilChecks != null && statistics ) {
+            outStream.println( "Nil checks removed: " + 
+                    nilChecks.getRemoved() );
+        }
+        if( optimizer != null ) {
+            code.applyPass( optimizer );
+            if( statistics ) {
+                optimizer.printStatistics( outStream );
+            }
+        }
+        if( superinstructions ) {
+            code.applyPass( new Superinstructions() );
+        }
+    }
+
     /** Compile the program
      * 
      * @param src program source
@@ -126,11 +291,15 @@ public class PL0_LALR {
      * @param staticCheck do the static checking
      * @param genCode perform the code generation
      * @param debugParse debugging messages during parsing 
+     * @param nilChecks nil check elimination to be applied before code
+     *        generation, or null
+     * @param display address non-local variables through the display
      * @return generated code for procedures
      */
     private static Procedures compile( Source src, Errors errors,
             boolean verbose, boolean staticCheck, boolean genCode, 
-            boolean debugParse ) 
+            boolean debugParse, NilCheckEliminator nilChecks,
+            boolean display ) 
         throws IOException, Exception
     {
         /** Abstract syntax tree returned by parser */
@@ -176,8 +345,12 @@ public class PL0_LALR {
             System.exit(1);
         }
         if( tree != null && genCode ) {
+            if( nilChecks != null ) {
+                nilChecks.visitProgramNode( tree );
+            }
             /* Generate the stack machine code */
             CodeGenerator codeGen = new CodeGenerator( errors );
+            codeGen.setDisplay( display );
             code = codeGen.generateCode( tree );
             outStream.println( "Code generation complete" );
         }
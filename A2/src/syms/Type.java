@@ -115,6 +115,24 @@ public abstract class Type
     public boolean containsElement(Type constType, int value) {
         return false;
     }
+    /** @return the offsets of the words of a value of this type that
+     * hold pointers, in increasing order. This is the pointer map used
+     * by the garbage collector of the stack machine.
+     * @requires resolved */
+    public int[] getPointerOffsets() {
+        List<Integer> offsets = new ArrayList<Integer>();
+        addPointerOffsets( 0, offsets );
+        int[] result = new int[ offsets.size() ];
+        for( int i = 0; i < result.length; i++ ) {
+            result[i] = offsets.get( i );
+        }
+        return result;
+    }
+    /** Add the offsets of the pointers within a value of this type,
+     * relative to base, to offsets. The default is for types whose
+     * values contain no pointers. */
+    protected void addPointerOffsets( int base, List<Integer> offsets ) {
+    }
     /** Coerce an expression to this type and report error if incompatible
      * @param exp is the expression to be coerced
      * @returns the coerced expression or ErrorNode on failure
@@ -944,6 +962,11 @@ public abstract class Type
                     "cannot treat " + exp.getType() + " as " + this,
                     exp.getLocation() );
         }
+        /** A pointer is a single word */
+        @Override
+        protected void addPointerOffsets( int base, List<Integer> offsets ) {
+            offsets.add( base );
+        }
         /** Two pointer types are equal only if their base types are equal. */
         @Override
         public boolean equals( Type other ) {
@@ -1051,6 +1074,14 @@ public abstract class Type
             // System.out.println( "Resolved " + name + " to " + this );
             return this;
         }
+        /** The pointers within each field, in the order allocated */
+        @Override
+        protected void addPointerOffsets( int base, List<Integer> offsets ) {
+            for( Field field : fieldList ) {
+                field.getType().addPointerOffsets( 
+                        base + field.getOffset(), offsets );
+            }
+        }
         @Override
         public String toString() {
             String result = "RECORD ";
@@ -113,6 +113,31 @@ public class TypeTest extends TestCase {
         assertEquals( 2, bbt.getSpace() );
     }
 
+    /*
+     * Test method for 'pl0.symbol_table.Type.getPointerOffsets()'
+     */
+    public void testGetPointerOffsets() {
+        Location noLoc = ErrorHandler.NO_LOCATION;
+        SymbolTable symtab = new SymbolTable();
+        Type.PointerType ptr = new Type.PointerType( 
+                new Type.IdRefType( "R", symtab.getCurrentScope(), noLoc ) );
+        Type.RecordType inner = new Type.RecordType();
+        inner.add( new Type.Field( noLoc, "p", ptr ) );
+        inner.add( new Type.Field( noLoc, "x", it ) );
+        Type.RecordType outer = new Type.RecordType();
+        outer.add( new Type.Field( noLoc, "x", it ) );
+        outer.add( new Type.Field( noLoc, "r", inner ) );
+        outer.add( new Type.Field( noLoc, "q", ptr ) );
+        outer.resolveType( noLoc );
+        assertEquals( 0, it.getPointerOffsets().length );
+        assertEquals( 0, ist.getPointerOffsets().length );
+        assertEquals( 1, ptr.getPointerOffsets().length );
+        int[] offsets = outer.getPointerOffsets();
+        assertEquals( 2, offsets.length );
+        assertEquals( 1, offsets[0] );
+        assertEquals( 3, offsets[1] );
+    }
+
     /*
      * Test method for 'pl0.symbol_table.Type.coerce()'
      */
@@ -0,0 +1,89 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * class AddressMap - immutable map from code addresses to the symbols
+ * (e.g. procedures) whose code contains them. Each symbol has a range of
+ * addresses [start, finish); the ranges are disjoint and sorted, so that
+ * the symbol containing an address is found by binary search.
+ * Symbols are also numbered by their position in the map, so that
+ * clients (e.g. a profiler) can keep per-symbol data in arrays.
+ * @param <T> type of the symbols
+ */
+public class AddressMap<T> {
+    /** Start address of each range, in increasing order */
+    private final int[] starts;
+    /** Address one past the end of each range */
+    private final int[] finishes;
+    /** Symbol for each range */
+    private final List<T> symbols;
+
+    /** Construct the map from the ranges of the symbols.
+     * @param symbols in order of their ranges
+     * @param starts start address of the range of each symbol
+     * @param finishes finish address of the range of each symbol
+     * @throws IllegalArgumentException if the ranges are not disjoint and
+     *  in increasing order, or the arguments differ in length
+     */
+    public AddressMap( List<T> symbols, int[] starts, int[] finishes ) {
+        if( symbols.size() != starts.length ||
+                starts.length != finishes.length ) {
+            throw new IllegalArgumentException( "Address map size mismatch" );
+        }
+        for( int i = 0; i < starts.length; i++ ) {
+            if( finishes[i] < starts[i] ||
+                    (i > 0 && starts[i] < finishes[i - 1]) ) {
+                throw new IllegalArgumentException(
+                        "Address ranges overlap or out of order at " +
+                        starts[i] );
+            }
+        }
+        this.symbols = new ArrayList<T>( symbols );
+        this.starts = starts.clone();
+        this.finishes = finishes.clone();
+    }
+    /** @return number of symbols in the map */
+    public int size() {
+        return symbols.size();
+    }
+    /** @return the i'th symbol, in address order */
+    public T get( int i ) {
+        return symbols.get( i );
+    }
+    public int getStart( int i ) {
+        return starts[i];
+    }
+    public int getFinish( int i ) {
+        return finishes[i];
+    }
+    /** @return the index of the symbol whose range contains address,
+     *  or -1 if there is none */
+    public int indexOf( int address ) {
+        /* Find the last range starting at or before address */
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while( low <= high ) {
+            int mid = (low + high) >>> 1;
+            if( starts[mid] <= address ) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        /* All earlier ranges finish before that one starts */
+        if( found >= 0 && address < finishes[found] ) {
+            return found;
+        }
+        return -1;
+    }
+    /** @return the symbol whose range contains address, or null if
+     *  there is none */
+    public T lookup( int address ) {
+        int i = indexOf( address );
+        return i < 0 ? null : symbols.get( i );
+    }
+}
@@ -0,0 +1,85 @@
+package tree;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * class AddressMapTest - Junit test of AddressMap class.
+ */
+public class AddressMapTest extends TestCase {
+
+    private AddressMap<String> map;
+
+    public AddressMapTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        /* Ranges [1000,1010), [1010,1025), gap, [1030,1031) */
+        map = new AddressMap<String>( Arrays.asList( "a", "b", "c" ),
+                new int[] { 1000, 1010, 1030 },
+                new int[] { 1010, 1025, 1031 } );
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        map = null;
+    }
+
+    public void testEmpty() {
+        AddressMap<String> empty = new AddressMap<String>(
+                Arrays.<String>asList(), new int[0], new int[0] );
+        assertEquals( 0, empty.size() );
+        assertEquals( -1, empty.indexOf( 1000 ) );
+        assertNull( empty.lookup( 1000 ) );
+    }
+
+    public void testLookup() {
+        assertEquals( 3, map.size() );
+        assertEquals( "a", map.lookup( 1000 ) );
+        assertEquals( "a", map.lookup( 1009 ) );
+        assertEquals( "b", map.lookup( 1010 ) );
+        assertEquals( "b", map.lookup( 1024 ) );
+        assertEquals( "c", map.lookup( 1030 ) );
+        assertEquals( 2, map.indexOf( 1030 ) );
+    }
+
+    public void testOutsideRanges() {
+        assertNull( map.lookup( 999 ) );
+        assertNull( map.lookup( 1025 ) );
+        assertNull( map.lookup( 1029 ) );
+        assertNull( map.lookup( 1031 ) );
+        assertEquals( -1, map.indexOf( Integer.MIN_VALUE ) );
+        assertEquals( -1, map.indexOf( Integer.MAX_VALUE ) );
+    }
+
+    public void testEmptyRange() {
+        AddressMap<String> m = new AddressMap<String>(
+                Arrays.asList( "a", "b" ),
+                new int[] { 10, 10 }, new int[] { 10, 20 } );
+        assertEquals( "b", m.lookup( 10 ) );
+        assertNull( m.lookup( 9 ) );
+    }
+
+    public void testOverlap() {
+        try {
+            new AddressMap<String>( Arrays.asList( "a", "b" ),
+                    new int[] { 10, 15 }, new int[] { 20, 30 } );
+            fail( "Overlapping ranges accepted" );
+        } catch( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    public void testSizeMismatch() {
+        try {
+            new AddressMap<String>( Arrays.asList( "a" ),
+                    new int[] { 10, 15 }, new int[] { 20, 30 } );
+            fail( "Mismatched arguments accepted" );
+        } catch( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+}
@@ -1,80 +1,362 @@
 package tree;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 
+import java_cup.runtime.ComplexSymbolFactory.Location;
 import machine.Instruction;
 import machine.Operation;
+import machine.StackMachine;
 import source.ErrorHandler;
 import syms.SymEntry;
 import syms.Type;
 
 /**
- * class Code - store sequence of instructions
+ * class Code - store sequence of instructions.
+ * The instructions are packed into words as they will be loaded into 
+ * the stack machine: each opcode is followed by its operands. The
+ * addresses of procedures, which are only known when the program is 
+ * loaded, are recorded in a side table of relocations, and the pointer
+ * maps and source locations of ALLOC_HEAP instructions in another.
+ * The words are held in a chain of chunks, so that appending one code
+ * sequence to another links the chunks of the appended sequence in
+ * constant time rather than copying them. The chain is flattened into 
+ * a single array of words when the code is loaded.
+ * A code sequence that has been appended to another shares its chunks
+ * with that sequence, so it must not be changed or appended again.
  * @version $Revision: 22 $  $Date: 2014-05-20 15:14:36 +1000 (Tue, 20 May 2014) $
  */
 
 public class Code {
-    /** List of instructions generated */
-    private List<Instruction> code;
-    /** Size of the instructions in words.
-     * This is not just the length of the list. */
+    /** The address of a procedure to be stored in the operand of a
+     * LOAD_CON when the code is loaded */
+    public static class Relocation {
+        private final int position;
+        private final SymEntry.ProcedureEntry proc;
+
+        Relocation( int position, SymEntry.ProcedureEntry proc ) {
+            this.position = position;
+            this.proc = proc;
+        }
+        /** @return position of the operand word within the code */
+        public int getPosition() {
+            return position;
+        }
+        public SymEntry.ProcedureEntry getProc() {
+            return proc;
+        }
+    }
+    /** The pointer map and source location of an ALLOC_HEAP instruction
+     * (see Instruction.AllocHeapInstruction) */
+    public static class HeapAllocation {
+        private final int position;
+        private final int[] pointerOffsets;
+        private final Location location;
+
+        HeapAllocation( int position, int[] pointerOffsets, 
+                Location location ) {
+            this.position = position;
+            this.pointerOffsets = pointerOffsets;
+            this.location = location;
+        }
+        /** @return position of the instruction within the code */
+        public int getPosition() {
+            return position;
+        }
+        public int[] getPointerOffsets() {
+            return pointerOffsets;
+        }
+        public Location getLocation() {
+            return location;
+        }
+    }
+    /** A run of words within the chain, with the relocations and heap
+     * allocations within it (positioned relative to the chunk) */
+    private static class Chunk {
+        int[] words;
+        /** Number of words used */
+        int length;
+        /** Null if there are none */
+        List<Relocation> relocations;
+        /** Null if there are none */
+        List<HeapAllocation> allocations;
+        /** Following chunk in the chain or null if this is the last */
+        Chunk next;
+
+        Chunk( int capacity ) {
+            words = new int[ capacity ];
+            length = 0;
+            relocations = null;
+            allocations = null;
+            next = null;
+        }
+    }
+    /** Number of words in a new chunk */
+    private static final int CHUNK_SIZE = 16;
+    private static final Operation[] operations = Operation.values();
+
+    /** First and last chunks of words generated (null if none) */
+    private Chunk first, last;
+    /** Whether the last chunk belongs to a code sequence that has been
+     * appended to this one, so that it must not be added to */
+    private boolean lastShared;
+    /** Position within the last chunk of the last instruction */
+    private int lastStart;
+    /** Whether this code sequence has been appended to another */
+    private boolean appended;
+    /** Size of the instructions in words */
     private int size;
 
     /** Code array is initially empty */
     public Code() {
         super();
-        code = new ArrayList<Instruction>();
+        first = last = null;
+        lastShared = false;
+        lastStart = -1;
+        appended = false;
         size = 0;
     }
-    public List<Instruction> getInstructionList() {
+    /** @return code consisting of the given words, procedure references
+     * and ALLOC_HEAP instructions, e.g. as read from an object file 
+     * (see ObjectFile), which must be in order of position */
+    static Code fromWords( int[] words, List<Relocation> relocations,
+            List<HeapAllocation> allocations ) {
+        Code code = new Code();
+        Chunk chunk = new Chunk( 0 );
+        chunk.words = words;
+        chunk.length = words.length;
+        chunk.relocations = relocations.isEmpty() ? null : relocations;
+        chunk.allocations = allocations.isEmpty() ? null : allocations;
+        code.first = code.last = chunk;
+        code.size = words.length;
         return code;
     }
     public int size() {
         return size;
     }
+    /** Flatten the chain into a single chunk, unless this sequence has
+     * been appended to another, when its chunks are left in place.
+     * @return the single chunk */
+    private Chunk flatten() {
+        if( first != null && first.next == null ) {
+            return first;
+        }
+        Chunk flat = new Chunk( size );
+        for( Chunk chunk = first; chunk != null; chunk = chunk.next ) {
+            System.arraycopy( chunk.words, 0, flat.words, flat.length, 
+                    chunk.length );
+            if( chunk.relocations != null ) {
+                for( Relocation r : chunk.relocations ) {
+                    addRelocation( flat, new Relocation( 
+                            flat.length + r.position, r.proc ) );
+                }
+            }
+            if( chunk.allocations != null ) {
+                for( HeapAllocation h : chunk.allocations ) {
+                    addAllocation( flat, new HeapAllocation( 
+                            flat.length + h.position, h.pointerOffsets,
+                            h.location ) );
+                }
+            }
+            flat.length += chunk.length;
+        }
+        if( !appended ) {
+            lastStart = last == null ? -1 : flat.length - 
+                    (last.length - lastStart);
+            first = last = flat;
+            lastShared = false;
+        }
+        return flat;
+    }
+    /** @return the words of the code, of which the first size() are
+     * used. The array must not be changed. */
+    public int[] getWords() {
+        return flatten().words;
+    }
+    /** @return the procedure references, in order of position */
+    public List<Relocation> getRelocations() {
+        List<Relocation> relocations = flatten().relocations;
+        return relocations == null ? 
+                Collections.<Relocation>emptyList() : relocations;
+    }
+    /** @return the ALLOC_HEAP instructions, in order of position */
+    public List<HeapAllocation> getHeapAllocations() {
+        List<HeapAllocation> allocations = flatten().allocations;
+        return allocations == null ? 
+                Collections.<HeapAllocation>emptyList() : allocations;
+    }
+    /** @return the instructions decoded from the words, in the form
+     * edited by the code improvement passes (see CodeRewriter) */
+    public List<Instruction> getInstructionList() {
+        Chunk flat = flatten();
+        List<Instruction> list = new ArrayList<Instruction>();
+        List<Relocation> relocations = getRelocations();
+        List<HeapAllocation> allocations = getHeapAllocations();
+        int nextRelocation = 0;
+        int nextAllocation = 0;
+        for( int position = 0; position < size; ) {
+            Operation op = operations[ flat.words[position] ];
+            if( op == Operation.LOAD_CON && 
+                    nextRelocation < relocations.size() &&
+                    relocations.get( nextRelocation ).position == position + 1 ) {
+                list.add( new Instruction.ProcRefInstruction( 
+                        relocations.get( nextRelocation++ ).proc ) );
+            } else if( op == Operation.LOAD_CON ) {
+                list.add( new Instruction.LoadConInstruction( 
+                        flat.words[position + 1] ) );
+            } else if( op == Operation.ALLOC_HEAP ) {
+                HeapAllocation h = allocations.get( nextAllocation++ );
+                list.add( new Instruction.AllocHeapInstruction( 
+                        h.pointerOffsets, h.location ) );
+            } else if( op.getSize() > 1 ) {
+                list.add( new Instruction.FusedInstruction( op, 
+                        Arrays.copyOfRange( flat.words, position + 1, 
+                            position + op.getSize() ) ) );
+            } else {
+                list.add( new Instruction( op ) );
+            }
+            position += op.getSize();
+        }
+        return list;
+    }
+    private static void addRelocation( Chunk chunk, Relocation r ) {
+        if( chunk.relocations == null ) {
+            chunk.relocations = new ArrayList<Relocation>();
+        }
+        chunk.relocations.add( r );
+    }
+    private static void addAllocation( Chunk chunk, HeapAllocation h ) {
+        if( chunk.allocations == null ) {
+            chunk.allocations = new ArrayList<HeapAllocation>();
+        }
+        chunk.allocations.add( h );
+    }
+    /** Start an instruction with the given opcode at the end of the last
+     * chunk, starting a new chunk if there is none or it is shared with
+     * an appended sequence */
+    private void emitOp( Operation opcode ) {
+        if( appended ) {
+            throw new Error( "Code generated into appended code sequence" );
+        }
+        if( last == null || lastShared ) {
+            Chunk chunk = new Chunk( CHUNK_SIZE );
+            if( last == null ) {
+                first = chunk;
+            } else {
+                last.next = chunk;
+            }
+            last = chunk;
+            lastShared = false;
+        }
+        lastStart = last.length;
+        emit( opcode.ordinal() );
+    }
+    /** Add a word to the end of the last chunk */
+    private void emit( int word ) {
+        if( last.length == last.words.length ) {
+            last.words = Arrays.copyOf( last.words, 
+                    Math.max( CHUNK_SIZE, 2 * last.length ) );
+        }
+        last.words[last.length++] = word;
+        size++;
+    }
     /*---------------------------------------------------------------*/
     /*--------------- Utility Code Generation Methods ---------------*/
     /*---------------------------------------------------------------*/
-    /** Append the code sequence newCode to this code sequence.
+    /** Append the code sequence newCode to this code sequence, by
+     * linking its chunks onto the end of the chain.
      * @param newCode sequence to be appended
      */
     public void append( Code newCode ) {
-        code.addAll( newCode.code );
+        if( newCode.appended || newCode == this ) {
+            throw new Error( "Code sequence appended twice" );
+        }
+        if( appended ) {
+            throw new Error( "Code generated into appended code sequence" );
+        }
+        newCode.appended = true;
+        if( newCode.first == null ) {
+            return;
+        }
+        if( last == null ) {
+            first = newCode.first;
+        } else {
+            last.next = newCode.first;
+        }
+        last = newCode.last;
+        lastShared = true;
+        lastStart = newCode.lastStart;
         size += newCode.size();
     }
-    /** Append instruction to code sequence.
+    /** Append instruction to code sequence. Any operands are zero.
      * @param opcode of the generated instruction.
      */
     public void generateOp( Operation opcode ) {
-        code.add( new Instruction( opcode ) );
-        size += opcode.getSize();
+        emitOp( opcode );
+        for( int i = 1; i < opcode.getSize(); i++ ) {
+            emit( 0 );
+        }
+    }
+    /** Append an already constructed instruction to code sequence,
+     * encoding it into words.
+     * @param instruction to be appended
+     */
+    public void generateInstruction( Instruction instruction ) {
+        if( instruction instanceof Instruction.ProcRefInstruction ) {
+            genProcCallRef( 
+                    ((Instruction.ProcRefInstruction)instruction).getProc() );
+        } else if( instruction instanceof Instruction.LoadConInstruction ) {
+            genLoadConstant( 
+                    ((Instruction.LoadConInstruction)instruction).getValue() );
+        } else if( instruction instanceof Instruction.AllocHeapInstruction ) {
+            Instruction.AllocHeapInstruction alloc = 
+                (Instruction.AllocHeapInstruction)instruction;
+            genAllocHeapOp( alloc.getPointerOffsets(), alloc.getLocation() );
+        } else if( instruction instanceof Instruction.FusedInstruction ) {
+            Instruction.FusedInstruction fused = 
+                (Instruction.FusedInstruction)instruction;
+            emitOp( fused.getOp() );
+            for( int i = 1; i < fused.getOp().getSize(); i++ ) {
+                emit( fused.getOperand( i - 1 ) );
+            }
+        } else {
+            generateOp( instruction.getOp() );
+        }
     }
     /** Generate a LoadConstant instruction at the current location.
      * @param word the value of the constant
      * @result location of the constant for later patching
      */ 
     public int genLoadConstant( int value ) {
-        int position = code.size();
-        code.add( new Instruction.LoadConInstruction( value ) );
-        size += Operation.LOAD_CON.getSize();
+        int position = size;
+        emitOp( Operation.LOAD_CON );
+        emit( value );
         return position;
     }
-    /** Update the LOAD_CON instruction at index position to load 
+    /** Update the LOAD_CON instruction at position to load 
      * the new value.
      */
     public void updateLoadCon( int position, int value ) {
-        Instruction instruction = code.get(position);
-        if( instruction instanceof Instruction.LoadConInstruction ) {
-            ((Instruction.LoadConInstruction)instruction).setValue(value);
-        } else {
-            throw new Error( "Code update of non-LOAD_CON instruction" );
+        int offset = position;
+        for( Chunk chunk = first; chunk != null; chunk = chunk.next ) {
+            if( offset < chunk.length ) {
+                if( chunk.words[offset] != Operation.LOAD_CON.ordinal() ) {
+                    break;
+                }
+                chunk.words[offset + 1] = value;
+                return;
+            }
+            offset -= chunk.length;
         }
+        throw new Error( "Code update of non-LOAD_CON instruction" );
     }
     /** Generate a procedure call reference instruction */
     public void genProcCallRef( SymEntry.ProcedureEntry proc ) {
-        code.add( new Instruction.ProcRefInstruction( proc ) );
-        size += Operation.LOAD_CON.getSize();
+        emitOp( Operation.LOAD_CON );
+        addRelocation( last, new Relocation( last.length, proc ) );
+        emit( StackMachine.NULL_ADDR );
     }
     
     /** Generate code to perform a logical negation.
@@ -105,11 +387,44 @@ public class Code {
             generateOp( Operation.TO_LOCAL );
         }
     }
+    /** Generate code to load the address, relative to the current frame
+     * pointer, of a variable in the frame of the current activation at
+     * the given static level. The frame is found through the display of
+     * frame pointers maintained by the stack machine, rather than by
+     * following the static chain. A single word load or store of the
+     * variable generated straight after it is combined with it into
+     * a LOAD_DISPLAY or STORE_DISPLAY (see genLoad and genStore).
+     * @param level static level of the frame holding the variable
+     * @param offset from frame pointer (at that level)
+     */
+    public void genDisplayRef( int level, int offset ) {
+        emitOp( Operation.REF_DISPLAY );
+        emit( level );
+        emit( offset );
+    }
+    /** If the last instruction generated is a REF_DISPLAY, replace it 
+     * by the display instruction op with the same level and offset.
+     * @return whether the instruction was replaced */
+    private boolean replaceDisplayRef( Operation op ) {
+        if( lastStart < 0 ) {
+            return false;
+        }
+        /* The last chunk may belong to an appended sequence, but that
+         * sequence is no longer used on its own */
+        if( last.words[lastStart] != Operation.REF_DISPLAY.ordinal() ) {
+            return false;
+        }
+        last.words[lastStart] = op.ordinal();
+        return true;
+    }
     /** Generate the load instruction depending on size */
     public void genLoad( Type type ) {
         if( type.getSpace() == 1 ) {
-            /* A single word value is loaded with LOAD_FRAME */
-            generateOp( Operation.LOAD_FRAME );
+            /* A single word value is loaded with LOAD_FRAME, or directly
+             * through the display */
+            if( !replaceDisplayRef( Operation.LOAD_DISPLAY ) ) {
+                generateOp( Operation.LOAD_FRAME );
+            }
         } else {
             /* A multi-word value is loaded with LOAD_MULTI */
             genLoadConstant( type.getSpace() );
@@ -121,9 +436,12 @@ public class Code {
         int size = refType.getBaseType().getSpace();
         if (size == 1) {
             /* For an expression that can fit in a single word,
-             *  store that into the variable.
+             *  store that into the variable, directly through the
+             *  display if the variable is addressed through it.
              */
-            generateOp( Operation.STORE_FRAME );
+            if( !replaceDisplayRef( Operation.STORE_DISPLAY ) ) {
+                generateOp( Operation.STORE_FRAME );
+            }
         } else {
             /* For the assignment of one multi-word variable to another 
              * generate a STORE_MULTI instruction to store the entire value.
@@ -147,6 +465,23 @@ public class Code {
         genProcCallRef( proc );
         generateOp( Operation.CALL );
     }
+    /** Generate the code for a procedure call, taking the static link
+     * from the display of frame pointers rather than the static chain.
+     * @param levelDiff difference between the static level being 
+     * called and the current level.
+     * @param proc entry of the procedure being called
+     */
+    public void genDisplayCall( int levelDiff, SymEntry.ProcedureEntry proc ) {
+        if( 0 < levelDiff ) {
+            /* Push the address of the frame at the level of the procedure */
+            genDisplayRef( proc.getLevel(), 0 );
+            generateOp( Operation.TO_GLOBAL );
+        } else {
+            genStaticLink( levelDiff );
+        }
+        genProcCallRef( proc );
+        generateOp( Operation.CALL );
+    }
     /** Generate code to push the static link for a procedure.
      * @param levelDiff is the difference in static levels between 
      * the calling procedure and the called procedure.
@@ -198,6 +533,20 @@ public class Code {
         genLoadConstant( upper );
         generateOp( Operation.BOUND );
     }
+    /** Generate code to allocate an object of the given type on the heap,
+     * leaving its address on the stack
+     * @param location of the allocation in the source */
+    public void genAllocHeap( Type type, Location location ) {
+        genLoadConstant( type.getSpace() );
+        genAllocHeapOp( type.getPointerOffsets(), location );
+    }
+    /** Generate an ALLOC_HEAP instruction with the given pointer map and
+     * source location */
+    private void genAllocHeapOp( int[] pointerOffsets, Location location ) {
+        emitOp( Operation.ALLOC_HEAP );
+        addAllocation( last, new HeapAllocation( lastStart, pointerOffsets,
+                    location ) );
+    }
     /** Generate code to allocate stack space */
     public void genAllocStack( int variableSpace ) {
         if( variableSpace != 0 ) {
@@ -27,6 +27,10 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     private Errors errors;
     /** Track the tree node currently being checked (for debugging) */
     private Stack<String> nodeStack;
+    /** Whether non-local variables and static links are addressed 
+     * through the display of frame pointers (LOAD_DISPLAY etc.) rather
+     * than by following the static chain */
+    private boolean display = false;
 
     public CodeGenerator(Errors errors) {
         super();
@@ -35,6 +39,14 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         procedures = new Procedures();
     }
 
+    /** Select whether non-local variables are addressed through the
+     * display maintained by the stack machine, at a constant cost, 
+     * rather than by following the static chain, at a cost proportional
+     * to the difference in static levels. */
+    public void setDisplay( boolean display ) {
+        this.display = display;
+    }
+
     /*-------------------- Main Method to start code generation --------*/
 
     /** Main generate code for this tree. */
@@ -105,8 +117,8 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         Code code = new Code();
 
         // Allocate the space needed to store the type the pointer points to
-        code.genLoadConstant(node.getType().getPointerType().getBaseType().getSpace());
-        code.generateOp(Operation.ALLOC_HEAP);
+        code.genAllocHeap(node.getType().getPointerType().getBaseType(),
+                node.getLocation());
         // The top of the stack now has the address of the memory
 
         endGen( "Pointer" );
@@ -120,8 +132,16 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         beginGen( "Deref Pointer" );
         Code code = new Code();
 
+        // The pointer is evaluated once and a copy kept for the dereference
         code.append(node.getPointer().genCode( this ));
         code.genLoad(node.getPointer().getType());
+        if( !node.isNilChecked() ) {
+            // The pointer has been shown not to be nil
+            code.generateOp(Operation.TO_LOCAL);
+            endGen( "Deref Pointer" );
+            return code;
+        }
+        code.generateOp(Operation.DUP);
 
         // Check if we are dealing with a nil pointer (address = 10000)
         code.genLoadConstant(StackMachine.NULL_ADDR);
@@ -135,9 +155,7 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         code.genLoadConstant(StackMachine.NIL_POINTER);
         code.generateOp(Operation.STOP);
 
-        // Otherwise loadcon then convert it to a local variable
-        code.append(node.getPointer().genCode( this ));
-        code.genLoad(node.getPointer().getType());
+        // Otherwise convert the copy to a local variable
         code.generateOp(Operation.TO_LOCAL);
 
         endGen( "Deref Pointer" );
@@ -222,7 +240,11 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
          * procedure's symbol table entry. The actual address is resolved 
          * at load time.
          */
-        code.genCall( staticLevel - proc.getLevel(), proc );
+        if( display ) {
+            code.genDisplayCall( staticLevel - proc.getLevel(), proc );
+        } else {
+            code.genCall( staticLevel - proc.getLevel(), proc );
+        }
         endGen( "Call" );
         return code;
     }
@@ -437,7 +459,11 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
 
         Code code = new Code();
 
-        code.genMemRef( staticLevel - var.getLevel(), var.getOffset() );
+        if( display && var.getLevel() != staticLevel ) {
+            code.genDisplayRef( var.getLevel(), var.getOffset() );
+        } else {
+            code.genMemRef( staticLevel - var.getLevel(), var.getOffset() );
+        }
 
         endGen( "Variable" );
         return code;
@@ -0,0 +1,14 @@
+package tree;
+
+/**
+ * interface CodePass - a transformation applied to the generated code 
+ * of each procedure after code generation and before the code is loaded
+ * into the stack machine. See Procedures.applyPass.
+ */
+public interface CodePass {
+    /** Transform the code of a single procedure.
+     * @param code of the procedure; it may be modified by the pass
+     * @return the transformed code
+     */
+    Code transform( Code code );
+}
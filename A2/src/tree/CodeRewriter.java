@@ -0,0 +1,279 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import machine.Instruction;
+import machine.Operation;
+
+/**
+ * class CodeRewriter - editable form of the code of a procedure used by
+ * code improvement passes.
+ * The relative branch offsets of the code are replaced by references to
+ * the instructions branched to, so that instructions may be replaced or
+ * deleted and the branch offsets recalculated afterwards by toCode.
+ * A branch offset is either the constant of a LOAD_CON immediately
+ * followed by a BR or BR_FALSE, or the operand of a BR_CON or BR_FALSE_CON.
+ * Only code in which every branch is of one of these forms can be
+ * rewritten; this includes all code generated by CodeGenerator.
+ */
+public class CodeRewriter {
+
+    /** An instruction in the sequence being rewritten */
+    public static class Node {
+        private Instruction inst;
+        /** For an instruction holding a branch offset the instruction
+         * branched to, otherwise null. */
+        private Node target;
+        /** Number of branches that have this node as their target */
+        private int refs;
+
+        private Node( Instruction inst ) {
+            this.inst = inst;
+            this.target = null;
+            this.refs = 0;
+        }
+        public Instruction getInstruction() {
+            return inst;
+        }
+        public Node getTarget() {
+            return target;
+        }
+    }
+    /** Sequence of instructions */
+    private List<Node> nodes;
+    /** Pseudo instruction representing the end of the code;
+     * it is the target of branches to the end of the code. */
+    private Node end;
+
+    private CodeRewriter() {
+        nodes = new ArrayList<Node>();
+        end = new Node( null );
+    }
+
+    /** Construct the editable form of code.
+     * @param code to be rewritten
+     * @return the rewriter or null if the code contains a branch that
+     *  is not of one of the forms handled.
+     */
+    public static CodeRewriter create( Code code ) {
+        CodeRewriter rewriter = new CodeRewriter();
+        List<Instruction> instructions = code.getInstructionList();
+        /* Map from word position to index of instruction */
+        Map<Integer,Integer> indexAt = new HashMap<Integer,Integer>();
+        int[] positions = new int[ instructions.size() + 1 ];
+        int position = 0;
+        for( int i = 0; i < instructions.size(); i++ ) {
+            indexAt.put( position, i );
+            positions[i] = position;
+            position += instructions.get(i).getOp().getSize();
+            rewriter.nodes.add( new Node( instructions.get(i) ) );
+        }
+        positions[ instructions.size() ] = position;
+        indexAt.put( position, instructions.size() );
+        for( int i = 0; i < instructions.size(); i++ ) {
+            Operation op = rewriter.getOp( i );
+            if( (op == Operation.BR || op == Operation.BR_FALSE) &&
+                    !rewriter.isBranchOffset( i - 1 ) ) {
+                /* Computed branch */
+                return null;
+            }
+            if( rewriter.isBranchOffset( i ) ) {
+                int offset = rewriter.getOffset( i );
+                int base = positions[ i + rewriter.branchLength( i ) ];
+                Integer target = indexAt.get( base + offset );
+                if( target == null ) {
+                    /* Branch outside the code or into an instruction */
+                    return null;
+                }
+                rewriter.setTarget( i, rewriter.getNode( target ) );
+            }
+        }
+        return rewriter;
+    }
+    /** Generate code from the (rewritten) instructions,
+     * recalculating the branch offsets.
+     */
+    public Code toCode() {
+        Map<Node,Integer> positions = new HashMap<Node,Integer>();
+        int position = 0;
+        for( Node node : nodes ) {
+            positions.put( node, position );
+            position += node.inst.getOp().getSize();
+        }
+        positions.put( end, position );
+        Code code = new Code();
+        for( int i = 0; i < nodes.size(); i++ ) {
+            Node node = nodes.get(i);
+            if( node.target != null ) {
+                Node next = i + branchLength( i ) < nodes.size() ?
+                        nodes.get( i + branchLength( i ) ) : end;
+                setOffset( i, positions.get( node.target ) -
+                        positions.get( next ) );
+            }
+            code.generateInstruction( node.inst );
+        }
+        return code;
+    }
+
+    /** Number of instructions */
+    public int size() {
+        return nodes.size();
+    }
+    public Node getNode( int i ) {
+        return nodes.get(i);
+    }
+    /** @return the pseudo instruction representing the end of the code */
+    public Node getEnd() {
+        return end;
+    }
+    /** @return index of node, or size() for the end of the code */
+    public int indexOf( Node node ) {
+        return node == end ? nodes.size() : nodes.indexOf( node );
+    }
+    public Instruction getInstruction( int i ) {
+        return nodes.get(i).inst;
+    }
+    /** @return the operation at index i or null if i is out of range */
+    public Operation getOp( int i ) {
+        if( i < 0 || nodes.size() <= i ) {
+            return null;
+        }
+        return nodes.get(i).inst.getOp();
+    }
+    /** @return whether the instruction at index i is the target of a branch */
+    public boolean isTarget( int i ) {
+        return nodes.get(i).refs > 0;
+    }
+    /** @return number of branches targeting the instruction at index i */
+    public int targetCount( int i ) {
+        return nodes.get(i).refs;
+    }
+    /** @return whether any of the instructions with indices in (from, to)
+     *  (exclusive at both ends) is the target of a branch */
+    public boolean hasInteriorTarget( int from, int to ) {
+        for( int i = from + 1; i < to; i++ ) {
+            if( isTarget( i ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /** @return whether the instruction at index i pushes a known constant;
+     * a LOAD_CON of a procedure address is not a known constant. */
+    public boolean isConstant( int i ) {
+        Operation op = getOp( i );
+        if( op == Operation.ZERO || op == Operation.ONE ) {
+            return true;
+        }
+        return op == Operation.LOAD_CON && !isBranchOffset( i ) &&
+            !(getInstruction(i) instanceof Instruction.ProcRefInstruction);
+    }
+    /** @return value pushed by the constant instruction at index i
+     * @requires isConstant( i ) */
+    public int getConstant( int i ) {
+        switch( getOp( i ) ) {
+        case ZERO:
+            return 0;
+        case ONE:
+            return 1;
+        default:
+            return ((Instruction.LoadConInstruction)getInstruction(i)).getValue();
+        }
+    }
+    /** @return whether the instruction at index i holds a branch offset */
+    public boolean isBranchOffset( int i ) {
+        Operation op = getOp( i );
+        if( op == Operation.BR_CON || op == Operation.BR_FALSE_CON ) {
+            return true;
+        }
+        Operation next = getOp( i + 1 );
+        return op == Operation.LOAD_CON &&
+            getInstruction(i).getClass() == Instruction.LoadConInstruction.class &&
+            (next == Operation.BR || next == Operation.BR_FALSE);
+    }
+    /** @return whether the branch with offset at index i is unconditional
+     * @requires isBranchOffset( i ) */
+    public boolean isUnconditional( int i ) {
+        return getOp( i ) == Operation.BR_CON || getOp( i + 1 ) == Operation.BR;
+    }
+    /** @return number of instructions making up the branch with
+     * its offset at index i
+     * @requires isBranchOffset( i ) */
+    public int branchLength( int i ) {
+        return getOp( i ) == Operation.LOAD_CON ? 2 : 1;
+    }
+    /** @return target of the branch with offset at index i */
+    public Node getTarget( int i ) {
+        return nodes.get(i).target;
+    }
+    /** Set the target of the branch with offset at index i */
+    public void setTarget( int i, Node target ) {
+        Node node = nodes.get(i);
+        if( node.target != null ) {
+            node.target.refs--;
+        }
+        node.target = target;
+        if( target != null ) {
+            target.refs++;
+        }
+    }
+    /** Replace the instructions with indices in [from, to) by the given
+     * instructions. Branches to the instruction at from are redirected to
+     * the first replacement instruction, or if there are none, to the
+     * instruction at to. The targets of any branches among the
+     * replacement instructions must be set using setTarget.
+     * @requires !hasInteriorTarget( from, to )
+     */
+    public void replace( int from, int to, Instruction... replacement ) {
+        if( hasInteriorTarget( from, to ) ) {
+            throw new Error( "Rewrite of the target of a branch" );
+        }
+        for( int i = from; i < to; i++ ) {
+            setTarget( i, null );
+        }
+        Node first = nodes.get( from );
+        if( replacement.length == 0 ) {
+            Node next = to < nodes.size() ? nodes.get( to ) : end;
+            if( first.refs > 0 ) {
+                for( Node node : nodes ) {
+                    if( node.target == first ) {
+                        node.target = next;
+                        next.refs++;
+                    }
+                }
+            }
+            nodes.subList( from, to ).clear();
+            return;
+        }
+        /* Reuse the first node so that branches to it are preserved */
+        first.inst = replacement[0];
+        List<Node> added = new ArrayList<Node>();
+        for( int i = 1; i < replacement.length; i++ ) {
+            added.add( new Node( replacement[i] ) );
+        }
+        List<Node> replaced = nodes.subList( from + 1, to );
+        replaced.clear();
+        replaced.addAll( added );
+    }
+
+    /** @return branch offset held in the instruction at index i */
+    private int getOffset( int i ) {
+        Instruction inst = getInstruction( i );
+        if( inst instanceof Instruction.FusedInstruction ) {
+            return ((Instruction.FusedInstruction)inst).getOperand( 0 );
+        }
+        return ((Instruction.LoadConInstruction)inst).getValue();
+    }
+    /** Set the branch offset held in the instruction at index i */
+    private void setOffset( int i, int offset ) {
+        Instruction inst = getInstruction( i );
+        if( inst instanceof Instruction.FusedInstruction ) {
+            ((Instruction.FusedInstruction)inst).setOperand( 0, offset );
+        } else {
+            ((Instruction.LoadConInstruction)inst).setValue( offset );
+        }
+    }
+}
@@ -187,10 +187,13 @@ public abstract class ExpNode {
 
         // The pointer
         private ExpNode pointer;
+        // Whether the pointer must be checked for nil when dereferenced
+        private boolean nilChecked;
 
         public DerefPointerNode( Location loc, ExpNode pointer ) {
             super( loc ); 
             this.pointer = pointer;
+            this.nilChecked = true;
         }
 
         public void setPointer( ExpNode pointer ) {
@@ -201,6 +204,15 @@ public abstract class ExpNode {
             return this.pointer;
         }
 
+        public boolean isNilChecked() {
+            return nilChecked;
+        }
+
+        /** Omit the nil check, the pointer being known not to be nil */
+        public void setNilChecked( boolean nilChecked ) {
+            this.nilChecked = nilChecked;
+        }
+
         @Override
         public ExpNode transform( ExpTransform<ExpNode> visitor ) {
             return visitor.visitDerefPointerNode( this );
@@ -0,0 +1,293 @@
+package tree;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import machine.StackMachine;
+import syms.SymEntry;
+import tree.StatementNode.*;
+
+/**
+ * class NilCheckEliminator - flow sensitive analysis of the (statically
+ * checked) abstract syntax tree that finds the pointer dereferences that
+ * cannot be of nil and marks them as not needing a nil check.
+ *
+ * The analysis tracks the set of pointer variables known not to be nil
+ * at each point of a procedure, in the order the code generator evaluates
+ * the tree. A variable becomes known not to be nil
+ *  - when it is assigned "new T" or a variable known not to be nil,
+ *  - after it has been dereferenced (the check on it having succeeded),
+ *  - in the branch of an if or while where "v != nil" is true or
+ *    "v = nil" is false.
+ * The fact is lost when the variable is assigned anything else, and all
+ * facts are lost on a call, as the procedure called may assign to any
+ * variable it can see. At the end of an if statement only the facts that
+ * hold after both branches are kept, and a while loop starts without the
+ * facts about the variables assigned (anywhere) in its body.
+ * Expressions have no side effects in PL0, so within an expression facts
+ * are only ever gained.
+ */
+public class NilCheckEliminator implements DeclVisitor, StatementVisitor,
+                    ExpTransform<ExpNode> {
+
+    /** Variables known not to be nil at the current point */
+    private Set<SymEntry.VarEntry> nonNil;
+    /** Number of nil checks eliminated */
+    private int removed;
+
+    public NilCheckEliminator() {
+        super();
+        nonNil = new HashSet<SymEntry.VarEntry>();
+        removed = 0;
+    }
+
+    /** Analyse the program and all its procedures */
+    public void visitProgramNode( DeclNode.ProgramNode node ) {
+        visitProcedureNode( node );
+    }
+    /** @return number of nil checks eliminated so far */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /*---------------------- Declarations ---------------------------*/
+
+    public void visitDeclListNode( DeclNode.DeclListNode node ) {
+        for( DeclNode decl : node.getDeclarations() ) {
+            decl.accept( this );
+        }
+    }
+    /** Nothing is known about the variables on entry to a procedure */
+    public void visitProcedureNode( DeclNode.ProcedureNode node ) {
+        nonNil.clear();
+        node.getBlock().accept( this );
+    }
+
+    /*----------------------- Statements ----------------------------*/
+
+    public void visitBlockNode( BlockNode node ) {
+        node.getBody().accept( this );
+        node.getProcedures().accept( this );
+    }
+    public void visitStatementErrorNode( StatementNode.ErrorNode node ) {
+        // Erroneous trees are never analysed
+    }
+    public void visitStatementListNode( StatementNode.ListNode node ) {
+        for( StatementNode s : node.getStatements() ) {
+            s.accept( this );
+        }
+    }
+    /** The expression is evaluated before the address of the variable */
+    public void visitAssignmentNode( StatementNode.AssignmentNode node ) {
+        ExpNode exp = node.getExp();
+        exp.transform( this );
+        node.getVariable().transform( this );
+        SymEntry.VarEntry var = variableOf( node.getVariable() );
+        if( var != null ) {
+            if( exp instanceof ExpNode.PointerNode ||
+                    nonNil.contains( valueOf( exp ) ) ) {
+                nonNil.add( var );
+            } else {
+                nonNil.remove( var );
+            }
+        }
+    }
+    public void visitWriteNode( StatementNode.WriteNode node ) {
+        node.getExp().transform( this );
+    }
+    public void visitCallNode( StatementNode.CallNode node ) {
+        nonNil.clear();
+    }
+    public void visitIfNode( StatementNode.IfNode node ) {
+        ExpNode cond = node.getCondition();
+        cond.transform( this );
+        Set<SymEntry.VarEntry> elseNonNil =
+            new HashSet<SymEntry.VarEntry>( nonNil );
+        addIfNonNil( cond, true, nonNil );
+        addIfNonNil( cond, false, elseNonNil );
+        node.getThenStmt().accept( this );
+        Set<SymEntry.VarEntry> thenNonNil = nonNil;
+        nonNil = elseNonNil;
+        node.getElseStmt().accept( this );
+        nonNil.retainAll( thenNonNil );
+    }
+    public void visitWhileNode( StatementNode.WhileNode node ) {
+        Assignments assigned = new Assignments();
+        node.getLoopStmt().accept( assigned );
+        if( assigned.hasCall ) {
+            nonNil.clear();
+        } else {
+            nonNil.removeAll( assigned.variables );
+        }
+        ExpNode cond = node.getCondition();
+        cond.transform( this );
+        Set<SymEntry.VarEntry> exitNonNil =
+            new HashSet<SymEntry.VarEntry>( nonNil );
+        addIfNonNil( cond, false, exitNonNil );
+        addIfNonNil( cond, true, nonNil );
+        node.getLoopStmt().accept( this );
+        nonNil = exitNonNil;
+    }
+
+    /*---------------------- Expressions ----------------------------*/
+
+    /** A dereference of a variable already known not to be nil needs
+     * no check; after the dereference the variable is known not to be nil
+     */
+    public ExpNode visitDerefPointerNode( ExpNode.DerefPointerNode node ) {
+        node.getPointer().transform( this );
+        SymEntry.VarEntry var = variableOf( node.getPointer() );
+        if( var != null && !nonNil.add( var ) ) {
+            node.setNilChecked( false );
+            removed++;
+        }
+        return node;
+    }
+    public ExpNode visitRecordNode( ExpNode.RecordNode node ) {
+        for( ExpNode field : node.getRecordFields() ) {
+            field.transform( this );
+        }
+        return node;
+    }
+    public ExpNode visitPointerNode( ExpNode.PointerNode node ) {
+        return node;
+    }
+    public ExpNode visitRecordReferenceNode( ExpNode.RecordReferenceNode node ) {
+        node.getRecord().transform( this );
+        return node;
+    }
+    public ExpNode visitErrorExpNode( ExpNode.ErrorNode node ) {
+        return node;
+    }
+    public ExpNode visitConstNode( ExpNode.ConstNode node ) {
+        return node;
+    }
+    public ExpNode visitIdentifierNode( ExpNode.IdentifierNode node ) {
+        return node;
+    }
+    public ExpNode visitVariableNode( ExpNode.VariableNode node ) {
+        return node;
+    }
+    public ExpNode visitReadNode( ExpNode.ReadNode node ) {
+        return node;
+    }
+    /** The arguments of > and >= are evaluated in reverse order */
+    public ExpNode visitOperatorNode( ExpNode.OperatorNode node ) {
+        if( node.getOp() == Operator.GREATER_OP ||
+                node.getOp() == Operator.GEQUALS_OP ) {
+            List<ExpNode> args =
+                ((ExpNode.ArgumentsNode)node.getArg()).getArgs();
+            for( int i = args.size() - 1; 0 <= i; i-- ) {
+                args.get( i ).transform( this );
+            }
+        } else {
+            node.getArg().transform( this );
+        }
+        return node;
+    }
+    public ExpNode visitArgumentsNode( ExpNode.ArgumentsNode node ) {
+        for( ExpNode exp : node.getArgs() ) {
+            exp.transform( this );
+        }
+        return node;
+    }
+    public ExpNode visitDereferenceNode( ExpNode.DereferenceNode node ) {
+        node.getLeftValue().transform( this );
+        return node;
+    }
+    public ExpNode visitNarrowSubrangeNode( ExpNode.NarrowSubrangeNode node ) {
+        node.getExp().transform( this );
+        return node;
+    }
+    public ExpNode visitWidenSubrangeNode( ExpNode.WidenSubrangeNode node ) {
+        node.getExp().transform( this );
+        return node;
+    }
+
+    /*------------------------- Support -----------------------------*/
+
+    /** @return the pointer variable an LValue refers to, or null if
+     * it is not a pointer variable */
+    private static SymEntry.VarEntry variableOf( ExpNode lValue ) {
+        if( lValue instanceof ExpNode.VariableNode &&
+                lValue.getType().getPointerType() != null ) {
+            return ((ExpNode.VariableNode)lValue).getVariable();
+        }
+        return null;
+    }
+    /** @return the pointer variable whose value an expression is, or null
+     * if it is not the value of a pointer variable */
+    private static SymEntry.VarEntry valueOf( ExpNode exp ) {
+        if( exp instanceof ExpNode.DereferenceNode ) {
+            return variableOf( ((ExpNode.DereferenceNode)exp).getLeftValue() );
+        }
+        return null;
+    }
+    /** Add the variable a condition shows not to be nil when it has the
+     * given value, if any, i.e. v when "v != nil" is true or "v = nil"
+     * is false (or either with the arguments the other way round). */
+    private static void addIfNonNil( ExpNode cond, boolean value,
+            Set<SymEntry.VarEntry> facts ) {
+        if( !(cond instanceof ExpNode.OperatorNode) ) {
+            return;
+        }
+        ExpNode.OperatorNode op = (ExpNode.OperatorNode)cond;
+        if( !(op.getOp() == Operator.NEQUALS_OP && value) &&
+                !(op.getOp() == Operator.EQUALS_OP && !value) ) {
+            return;
+        }
+        List<ExpNode> args = ((ExpNode.ArgumentsNode)op.getArg()).getArgs();
+        for( int i = 0; i < 2; i++ ) {
+            /* A pointer variable compared is left as an LValue, its
+             * value being loaded as part of the comparison */
+            SymEntry.VarEntry var = variableOf( args.get( i ) );
+            if( var == null ) {
+                var = valueOf( args.get( i ) );
+            }
+            if( var != null && isNil( args.get( 1 - i ) ) ) {
+                facts.add( var );
+            }
+        }
+    }
+    private static boolean isNil( ExpNode exp ) {
+        return exp instanceof ExpNode.ConstNode &&
+            exp.getType().getPointerType() != null &&
+            ((ExpNode.ConstNode)exp).getValue() == StackMachine.NULL_ADDR;
+    }
+
+    /** Collects the variables assigned by a statement, and whether it
+     * contains a call (which may assign to any variable). */
+    private static class Assignments implements StatementVisitor {
+        Set<SymEntry.VarEntry> variables = new HashSet<SymEntry.VarEntry>();
+        boolean hasCall = false;
+
+        public void visitBlockNode( BlockNode node ) {
+            node.getBody().accept( this );
+        }
+        public void visitStatementErrorNode( StatementNode.ErrorNode node ) {
+        }
+        public void visitStatementListNode( StatementNode.ListNode node ) {
+            for( StatementNode s : node.getStatements() ) {
+                s.accept( this );
+            }
+        }
+        public void visitAssignmentNode( StatementNode.AssignmentNode node ) {
+            SymEntry.VarEntry var = variableOf( node.getVariable() );
+            if( var != null ) {
+                variables.add( var );
+            }
+        }
+        public void visitWriteNode( StatementNode.WriteNode node ) {
+        }
+        public void visitCallNode( StatementNode.CallNode node ) {
+            hasCall = true;
+        }
+        public void visitIfNode( StatementNode.IfNode node ) {
+            node.getThenStmt().accept( this );
+            node.getElseStmt().accept( this );
+        }
+        public void visitWhileNode( StatementNode.WhileNode node ) {
+            node.getLoopStmt().accept( this );
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package tree;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import java_cup.runtime.ComplexSymbolFactory;
+import junit.framework.TestCase;
+import parser.CUPParser;
+import parser.Lexer;
+import source.ErrorHandler;
+import source.Source;
+
+/**
+ * class NilCheckEliminatorTest - Junit test of NilCheckEliminator class.
+ * Each program is parsed and statically checked, and the nil checks
+ * the analysis removes are counted.
+ */
+public class NilCheckEliminatorTest extends TestCase {
+
+    /** Declarations of a pointer type, pointer variables p and q, an int
+     * variable i and a procedure that sets p to nil */
+    private static final String DECLS =
+        "type P = ^R; R = record x: int; next: P end;\n" +
+        "var p: P; q: P; i: int;\n" +
+        "procedure clear() = begin p := nil end;\n";
+
+    public NilCheckEliminatorTest(String testName) {
+        super(testName);
+    }
+
+    /** @return the number of nil checks removed from the program with
+     * the given main body */
+    private static int removed( String body ) throws Exception {
+        File file = File.createTempFile( "nil", ".pl0" );
+        try {
+            FileWriter out = new FileWriter( file );
+            out.write( DECLS + "begin\n" + body + "\nend\n" );
+            out.close();
+            DeclNode.ProgramNode tree = check( new Source( file.getPath() ) );
+            NilCheckEliminator eliminator = new NilCheckEliminator();
+            eliminator.visitProgramNode( tree );
+            return eliminator.getRemoved();
+        } finally {
+            file.delete();
+        }
+    }
+    /** @return the statically checked tree of the program */
+    private static DeclNode.ProgramNode check( Source src ) throws Exception {
+        ComplexSymbolFactory csf = new ComplexSymbolFactory();
+        Object tree = new CUPParser( new Lexer( src, csf ), csf ).parse().value;
+        assertTrue( tree instanceof DeclNode.ProgramNode );
+        new StaticChecker( ErrorHandler.getErrorHandler() )
+            .visitProgramNode( (DeclNode.ProgramNode)tree );
+        assertFalse( ErrorHandler.getErrorHandler().hadErrors() );
+        return (DeclNode.ProgramNode)tree;
+    }
+
+    public void testNoFacts() throws Exception {
+        assertEquals( 0, removed( "p^.x := 1" ) );
+    }
+
+    public void testAfterNew() throws Exception {
+        assertEquals( 2, removed( "p := new P; p^.x := 1; write p^.x" ) );
+    }
+
+    public void testAfterDereference() throws Exception {
+        /* The first check succeeding shows p is not nil */
+        assertEquals( 2, removed( "p^.x := 1; p^.x := 2; write p^.x" ) );
+    }
+
+    public void testCopy() throws Exception {
+        assertEquals( 1, removed( "p := new P; q := p; write q^.x" ) );
+        /* Only the check on p is removed: p^.next may be nil */
+        assertEquals( 1, removed( "p := new P; q := p^.next; write q^.x" ) );
+    }
+
+    public void testKeptAfterCall() throws Exception {
+        assertEquals( 0, removed( "p := new P; call clear(); write p^.x" ) );
+    }
+
+    public void testKeptAfterNilAssignment() throws Exception {
+        assertEquals( 0, removed( "p := new P; p := nil; write p^.x" ) );
+    }
+
+    public void testKeptAfterNilAssignmentInLoop() throws Exception {
+        /* The second iteration dereferences nil */
+        assertEquals( 0, removed( "p := new P; i := 0;\n" +
+                "while i < 2 do\n" +
+                "  begin write p^.x; p := nil; i := i + 1 end" ) );
+        /* A body that leaves p alone keeps the fact */
+        assertEquals( 1, removed( "p := new P; i := 0;\n" +
+                "while i < 2 do\n" +
+                "  begin write p^.x; q := nil; i := i + 1 end" ) );
+    }
+
+    public void testKeptAfterCallInLoop() throws Exception {
+        assertEquals( 0, removed( "p := new P; i := 0;\n" +
+                "while i < 2 do\n" +
+                "  begin write p^.x; call clear(); i := i + 1 end" ) );
+    }
+
+    public void testKeptAtDisagreeingJoin() throws Exception {
+        assertEquals( 0, removed( "p := new P;\n" +
+                "if i = 0 then p := nil else p := new P;\n" +
+                "write p^.x" ) );
+        assertEquals( 0, removed( "p := new P;\n" +
+                "if i = 0 then q := nil else p := nil;\n" +
+                "write p^.x" ) );
+    }
+
+    public void testAgreeingJoin() throws Exception {
+        assertEquals( 1, removed(
+                "if i = 0 then p := new P else p := new P;\n" +
+                "write p^.x" ) );
+    }
+
+    public void testComparisonWithNil() throws Exception {
+        assertEquals( 1, removed(
+                "if p != nil then write p^.x else write 0" ) );
+        assertEquals( 1, removed(
+                "if nil = p then write 0 else write p^.x" ) );
+        assertEquals( 0, removed(
+                "if p = nil then write p^.x else write 0" ) );
+        assertEquals( 1, removed(
+                "while p != nil do begin write p^.x; p := nil end" ) );
+    }
+}
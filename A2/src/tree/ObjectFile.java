@@ -0,0 +1,329 @@
+package tree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import machine.Operation;
+import machine.StackMachine;
+import source.ErrorHandler;
+import syms.Scope;
+import syms.SymEntry;
+import syms.Type;
+
+/**
+ * class ObjectFile - reads and writes the generated code of a program
+ * in a binary object file, so that a program that has not changed can
+ * be run again without being recompiled.
+ * The file holds, for each procedure in order of address, its code
+ * words, the procedure references and ALLOC_HEAP instructions within
+ * them (see Code), and the debug symbols used by the stack machine for
+ * its trace back and garbage collector: the static levels of the
+ * procedure, the space for its variables, and the name, offset, size
+ * and pointer map of each of its local variables.
+ * The header identifies the file and its format version, the memory
+ * layout the code was generated for and the compiler options that
+ * affect the code; a file with a different header is not read.
+ * All words are big-endian and strings are a length followed by UTF-8.
+ */
+public class ObjectFile {
+    /** Suffix added to the name of the source file */
+    public static final String SUFFIX = "o";
+    /** "PL0O" */
+    private static final int MAGIC = 0x504C304F;
+    /** Incremented whenever the format or the generated code changes */
+    private static final int VERSION = 1;
+    private static final Operation[] operations = Operation.values();
+
+    /** Type of a variable read from an object file: only its size and
+     * pointer map are needed */
+    private static class DebugType extends Type {
+        private final int[] pointerOffsets;
+
+        DebugType( String name, int space, int[] pointerOffsets ) {
+            super( space, true, name );
+            this.pointerOffsets = pointerOffsets;
+        }
+        @Override
+        protected void addPointerOffsets( int base, List<Integer> offsets ) {
+            for( int offset : pointerOffsets ) {
+                offsets.add( base + offset );
+            }
+        }
+    }
+
+    /** @return the name of the object file for the source file */
+    public static File forSource( String srcFile ) {
+        return new File( srcFile + SUFFIX );
+    }
+    /** @return whether the object file exists and is no older than
+     * the source file */
+    public static boolean isUpToDate( File objectFile, String srcFile ) {
+        return objectFile.isFile() &&
+            objectFile.lastModified() >= new File( srcFile ).lastModified();
+    }
+
+    /** Write the code of the procedures to the object file.
+     * @param procedures code to be written (after any code improvement)
+     * @param file to be written
+     * @param options compiler options that affect the generated code
+     */
+    public static void write( Procedures procedures, File file,
+            String options ) throws IOException {
+        List<Procedures.ProcedureCode> procs =
+            procedures.getProcedureEntries();
+        Map<SymEntry.ProcedureEntry,Integer> index =
+            new IdentityHashMap<SymEntry.ProcedureEntry,Integer>();
+        for( Procedures.ProcedureCode proc : procs ) {
+            index.put( proc.procEntry, index.size() );
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( file ) ) );
+        try {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( StackMachine.CODE_START );
+            out.writeInt( StackMachine.NULL_ADDR );
+            writeString( out, options );
+            out.writeInt( procs.size() );
+            for( Procedures.ProcedureCode proc : procs ) {
+                writeProcedure( out, proc, index );
+            }
+        } finally {
+            out.close();
+        }
+    }
+    private static void writeProcedure( DataOutputStream out,
+            Procedures.ProcedureCode proc,
+            Map<SymEntry.ProcedureEntry,Integer> index ) throws IOException {
+        Scope locals = proc.getLocals();
+        writeString( out, proc.getName() );
+        out.writeInt( proc.procEntry.getLevel() );
+        out.writeInt( locals.getLevel() );
+        out.writeInt( locals.getVariableSpace() );
+        Code code = proc.getCode();
+        int[] words = code.getWords();
+        out.writeInt( code.size() );
+        for( int i = 0; i < code.size(); i++ ) {
+            out.writeInt( words[i] );
+        }
+        out.writeInt( code.getRelocations().size() );
+        for( Code.Relocation r : code.getRelocations() ) {
+            Integer target = index.get( r.getProc() );
+            if( target == null ) {
+                throw new IOException( "Reference to procedure " +
+                        r.getProc().getIdent() + " without code" );
+            }
+            out.writeInt( r.getPosition() );
+            out.writeInt( target );
+        }
+        out.writeInt( code.getHeapAllocations().size() );
+        for( Code.HeapAllocation h : code.getHeapAllocations() ) {
+            out.writeInt( h.getPosition() );
+            writeInts( out, h.getPointerOffsets() );
+            Location loc = h.getLocation();
+            if( loc == null || loc.equals( ErrorHandler.NO_LOCATION ) ) {
+                out.writeInt( -1 );
+                out.writeInt( -1 );
+            } else {
+                out.writeInt( loc.getLine() );
+                out.writeInt( loc.getColumn() );
+            }
+        }
+        List<SymEntry.VarEntry> vars = new ArrayList<SymEntry.VarEntry>();
+        for( SymEntry entry : locals.getEntries() ) {
+            if( entry instanceof SymEntry.VarEntry ) {
+                vars.add( (SymEntry.VarEntry)entry );
+            }
+        }
+        out.writeInt( vars.size() );
+        for( SymEntry.VarEntry var : vars ) {
+            Type type = var.getType().getBaseType();
+            writeString( out, var.getIdent() );
+            writeString( out, type.getName() );
+            out.writeInt( var.getOffset() );
+            out.writeInt( type.getSpace() );
+            writeInts( out, type.getPointerOffsets() );
+        }
+    }
+    private static void writeInts( DataOutputStream out, int[] values )
+            throws IOException {
+        out.writeInt( values.length );
+        for( int value : values ) {
+            out.writeInt( value );
+        }
+    }
+    private static void writeString( DataOutputStream out, String s )
+            throws IOException {
+        byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    /** Read the code of the procedures from the object file, which is
+     * mapped into memory rather than read through a stream.
+     * @param file to be read
+     * @param options compiler options that affect the generated code
+     * @return the code of the procedures, or null if the file is for a
+     *  different format version, memory layout or options
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static Procedures read( File file, String options )
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer in = channel.map( FileChannel.MapMode.READ_ONLY,
+                    0, channel.size() );
+            if( in.getInt() != MAGIC ) {
+                throw new IOException( "not a PL0 object file" );
+            }
+            if( in.getInt() != VERSION ||
+                    in.getInt() != StackMachine.CODE_START ||
+                    in.getInt() != StackMachine.NULL_ADDR ||
+                    !readString( in ).equals( options ) ) {
+                return null;
+            }
+            return readProcedures( in );
+        } catch( BufferUnderflowException | IllegalArgumentException |
+                NegativeArraySizeException e ) {
+            throw new IOException( "malformed object file" );
+        } finally {
+            raf.close();
+        }
+    }
+    private static Procedures readProcedures( MappedByteBuffer in )
+            throws IOException {
+        int count = in.getInt();
+        /* Create the procedure entries first, as the code of each may
+         * refer to any of them */
+        SymEntry.ProcedureEntry[] entries = new SymEntry.ProcedureEntry[count];
+        int[] variableSpace = new int[count];
+        int start = in.position();
+        for( int i = 0; i < count; i++ ) {
+            entries[i] = new SymEntry.ProcedureEntry( readString( in ),
+                    ErrorHandler.NO_LOCATION );
+            new Scope( null, in.getInt(), null ).addEntry( entries[i] );
+            entries[i].setLocalScope(
+                    new Scope( null, in.getInt(), entries[i] ) );
+            variableSpace[i] = in.getInt();
+            skipProcedure( in );
+        }
+        in.position( start );
+        Procedures procedures = new Procedures();
+        for( int i = 0; i < count; i++ ) {
+            readString( in );
+            skipInts( in, 3 );
+            procedures.addProcedure( entries[i], readCode( in, entries ) );
+            Scope locals = entries[i].getLocalScope();
+            readVariables( in, locals );
+            /* Include space for any variables local to blocks */
+            locals.allocVariableSpace( 
+                    variableSpace[i] - locals.getVariableSpace() );
+        }
+        return procedures;
+    }
+    /** Skip over the code and variables of a procedure */
+    private static void skipProcedure( MappedByteBuffer in ) {
+        skipInts( in, in.getInt() );
+        skipInts( in, 2 * in.getInt() );
+        for( int n = in.getInt(); n > 0; n-- ) {
+            in.getInt();
+            skipInts( in, in.getInt() + 2 );
+        }
+        for( int n = in.getInt(); n > 0; n-- ) {
+            readString( in );
+            readString( in );
+            skipInts( in, 2 );
+            skipInts( in, in.getInt() );
+        }
+    }
+    private static void skipInts( MappedByteBuffer in, int count ) {
+        in.position( in.position() + 4 * count );
+    }
+    private static Code readCode( MappedByteBuffer in,
+            SymEntry.ProcedureEntry[] entries ) throws IOException {
+        int[] words = new int[ in.getInt() ];
+        in.asIntBuffer().get( words );
+        skipInts( in, words.length );
+        /* The opcodes are decoded when the code is loaded, before it is
+         * verified */
+        for( int position = 0; position < words.length; ) {
+            int word = words[position];
+            if( word < 0 || operations.length <= word ) {
+                throw new IOException( "malformed object file" );
+            }
+            position += operations[word].getSize();
+        }
+        List<Code.Relocation> relocations = new ArrayList<Code.Relocation>();
+        for( int n = in.getInt(); n > 0; n-- ) {
+            int position = readPosition( in, words );
+            int target = in.getInt();
+            if( target < 0 || entries.length <= target ) {
+                throw new IOException( "Invalid procedure reference" );
+            }
+            relocations.add( new Code.Relocation( position, entries[target] ) );
+        }
+        List<Code.HeapAllocation> allocations =
+            new ArrayList<Code.HeapAllocation>();
+        for( int n = in.getInt(); n > 0; n-- ) {
+            int position = readPosition( in, words );
+            int[] pointerOffsets = readInts( in );
+            int line = in.getInt();
+            int column = in.getInt();
+            allocations.add( new Code.HeapAllocation( position,
+                    pointerOffsets, line < 0 ? ErrorHandler.NO_LOCATION :
+                        new Location( line, column ) ) );
+        }
+        return Code.fromWords( words, relocations, allocations );
+    }
+    /** @return a position within the code words */
+    private static int readPosition( MappedByteBuffer in, int[] words )
+            throws IOException {
+        int position = in.getInt();
+        if( position < 0 || words.length <= position ) {
+            throw new IOException( "malformed object file" );
+        }
+        return position;
+    }
+    /** Read the local variables into the scope, allocating their space
+     * and then restoring the offsets they were given when compiled */
+    private static void readVariables( MappedByteBuffer in, Scope locals ) {
+        for( int n = in.getInt(); n > 0; n-- ) {
+            String ident = readString( in );
+            String typeName = readString( in );
+            int offset = in.getInt();
+            int space = in.getInt();
+            Type type = new DebugType( typeName, space, readInts( in ) );
+            SymEntry.VarEntry var = new SymEntry.VarEntry( ident,
+                    ErrorHandler.NO_LOCATION, new Type.ReferenceType( type ) );
+            locals.addEntry( var );
+            var.resolve();
+            var.setOffset( offset );
+        }
+    }
+    private static int[] readInts( MappedByteBuffer in ) {
+        int[] values = new int[ in.getInt() ];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+    private static String readString( MappedByteBuffer in ) {
+        byte[] bytes = new byte[ in.getInt() ];
+        in.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
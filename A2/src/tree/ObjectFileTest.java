@@ -0,0 +1,266 @@
+package tree;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java_cup.runtime.ComplexSymbolFactory;
+import junit.framework.TestCase;
+import parser.CUPParser;
+import parser.Lexer;
+import source.ErrorHandler;
+import source.Source;
+import syms.SymEntry;
+
+/**
+ * class ObjectFileTest - Junit test of ObjectFile class.
+ * A program is compiled, its code written to an object file and read
+ * back, and the two are compared.
+ */
+public class ObjectFileTest extends TestCase {
+
+    /** Nested procedures, which call each other, with pointer variables
+     * and heap allocations of records containing pointers */
+    private static final String PROGRAM =
+        "type P = ^R; R = record x: int; next: P end;\n" +
+        "var p: P; n: int;\n" +
+        "procedure outer() =\n" +
+        "  var q: P; r: R;\n" +
+        "  procedure inner() =\n" +
+        "    var s: P;\n" +
+        "    begin\n" +
+        "      s := new P; s^.next := q; q := s;\n" +
+        "      n := n - 1;\n" +
+        "      if n > 0 then call outer() else write n\n" +
+        "    end;\n" +
+        "  begin\n" +
+        "    q := new P; r.next := q;\n" +
+        "    call inner()\n" +
+        "  end;\n" +
+        "begin\n" +
+        "  p := new P; n := 3;\n" +
+        "  call outer()\n" +
+        "end\n";
+    /** Options written in the header */
+    private static final String OPTIONS = "-n ";
+
+    private File source;
+    private File object;
+
+    public ObjectFileTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        source = File.createTempFile( "obj", ".pl0" );
+        object = ObjectFile.forSource( source.getPath() );
+        FileWriter out = new FileWriter( source );
+        out.write( PROGRAM );
+        out.close();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        source.delete();
+        object.delete();
+    }
+
+    /** @return the code generated for the source file */
+    private Procedures compile() throws Exception {
+        ComplexSymbolFactory csf = new ComplexSymbolFactory();
+        Object tree = new CUPParser(
+                new Lexer( new Source( source.getPath() ), csf ), csf )
+            .parse().value;
+        assertTrue( tree instanceof DeclNode.ProgramNode );
+        new StaticChecker( ErrorHandler.getErrorHandler() )
+            .visitProgramNode( (DeclNode.ProgramNode)tree );
+        assertFalse( ErrorHandler.getErrorHandler().hadErrors() );
+        return new CodeGenerator( ErrorHandler.getErrorHandler() )
+            .generateCode( (DeclNode.ProgramNode)tree );
+    }
+
+    public void testReadBack() throws Exception {
+        Procedures code = compile();
+        ObjectFile.write( code, object, OPTIONS );
+        Procedures read = ObjectFile.read( object, OPTIONS );
+        assertNotNull( read );
+        List<Procedures.ProcedureCode> procs = code.getProcedureEntries();
+        List<Procedures.ProcedureCode> readProcs = read.getProcedureEntries();
+        assertEquals( 3, procs.size() );
+        assertEquals( procs.size(), readProcs.size() );
+        int relocations = 0, allocations = 0;
+        for( int i = 0; i < procs.size(); i++ ) {
+            Procedures.ProcedureCode proc = procs.get( i );
+            Procedures.ProcedureCode readProc = readProcs.get( i );
+            assertEquals( proc.getName(), readProc.getName() );
+            assertEquals( proc.procEntry.getLevel(),
+                    readProc.procEntry.getLevel() );
+            assertEquals( proc.procEntry.getStart(),
+                    readProc.procEntry.getStart() );
+            assertEquals( proc.getLocals().getLevel(),
+                    readProc.getLocals().getLevel() );
+            assertEquals( proc.getLocals().getVariableSpace(),
+                    readProc.getLocals().getVariableSpace() );
+            Code c = proc.getCode();
+            Code readC = readProc.getCode();
+            assertEquals( c.size(), readC.size() );
+            assertTrue( Arrays.equals( Arrays.copyOf( c.getWords(), c.size() ),
+                    Arrays.copyOf( readC.getWords(), readC.size() ) ) );
+            assertRelocations( code, c, read, readC );
+            assertAllocations( c, readC );
+            assertVariables( proc, readProc );
+            relocations += c.getRelocations().size();
+            allocations += c.getHeapAllocations().size();
+        }
+        /* The program exercises each part of the format */
+        assertTrue( relocations > 0 );
+        assertEquals( 3, allocations );
+    }
+    /** Each reference is to the procedure at the same index */
+    private void assertRelocations( Procedures code, Code c,
+            Procedures read, Code readC ) {
+        List<Code.Relocation> rs = c.getRelocations();
+        List<Code.Relocation> readRs = readC.getRelocations();
+        assertEquals( rs.size(), readRs.size() );
+        for( int i = 0; i < rs.size(); i++ ) {
+            assertEquals( rs.get( i ).getPosition(),
+                    readRs.get( i ).getPosition() );
+            assertEquals( indexOf( code, rs.get( i ).getProc() ),
+                    indexOf( read, readRs.get( i ).getProc() ) );
+        }
+    }
+    private static int indexOf( Procedures procedures,
+            SymEntry.ProcedureEntry entry ) {
+        List<Procedures.ProcedureCode> procs =
+            procedures.getProcedureEntries();
+        for( int i = 0; i < procs.size(); i++ ) {
+            if( procs.get( i ).procEntry == entry ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    private void assertAllocations( Code c, Code readC ) {
+        List<Code.HeapAllocation> hs = c.getHeapAllocations();
+        List<Code.HeapAllocation> readHs = readC.getHeapAllocations();
+        assertEquals( hs.size(), readHs.size() );
+        for( int i = 0; i < hs.size(); i++ ) {
+            assertEquals( hs.get( i ).getPosition(),
+                    readHs.get( i ).getPosition() );
+            assertTrue( Arrays.equals( hs.get( i ).getPointerOffsets(),
+                    readHs.get( i ).getPointerOffsets() ) );
+            assertEquals( hs.get( i ).getLocation().getLine(),
+                    readHs.get( i ).getLocation().getLine() );
+            assertEquals( hs.get( i ).getLocation().getColumn(),
+                    readHs.get( i ).getLocation().getColumn() );
+        }
+    }
+    /** The variables have the same names, offsets, sizes and pointer
+     * maps */
+    private void assertVariables( Procedures.ProcedureCode proc,
+            Procedures.ProcedureCode readProc ) {
+        List<SymEntry.VarEntry> vars = variables( proc );
+        List<SymEntry.VarEntry> readVars = variables( readProc );
+        assertEquals( vars.size(), readVars.size() );
+        for( int i = 0; i < vars.size(); i++ ) {
+            SymEntry.VarEntry var = vars.get( i );
+            SymEntry.VarEntry readVar = readVars.get( i );
+            assertEquals( var.getIdent(), readVar.getIdent() );
+            assertEquals( var.getOffset(), readVar.getOffset() );
+            assertEquals( var.getType().getBaseType().getSpace(),
+                    readVar.getType().getBaseType().getSpace() );
+            assertTrue( Arrays.equals(
+                    var.getType().getBaseType().getPointerOffsets(),
+                    readVar.getType().getBaseType().getPointerOffsets() ) );
+        }
+    }
+    private static List<SymEntry.VarEntry> variables(
+            Procedures.ProcedureCode proc ) {
+        List<SymEntry.VarEntry> vars = new ArrayList<SymEntry.VarEntry>();
+        for( SymEntry entry : proc.getLocals().getEntries() ) {
+            if( entry instanceof SymEntry.VarEntry ) {
+                vars.add( (SymEntry.VarEntry)entry );
+            }
+        }
+        return vars;
+    }
+
+    public void testDifferentOptions() throws Exception {
+        ObjectFile.write( compile(), object, OPTIONS );
+        assertNull( ObjectFile.read( object, "" ) );
+        assertNull( ObjectFile.read( object, "-n -e " ) );
+    }
+
+    public void testNotObjectFile() throws Exception {
+        try {
+            ObjectFile.read( source, OPTIONS );
+            fail( "read a source file" );
+        } catch( IOException e ) {
+            /* expected */
+        }
+    }
+
+    public void testTruncated() throws Exception {
+        ObjectFile.write( compile(), object, OPTIONS );
+        long length = object.length();
+        /* Cut the file short at every byte */
+        for( long size = length - 1; size >= 0; size-- ) {
+            RandomAccessFile raf = new RandomAccessFile( object, "rw" );
+            raf.setLength( size );
+            raf.close();
+            try {
+                ObjectFile.read( object, OPTIONS );
+                fail( "read a file truncated to " + size + " bytes" );
+            } catch( IOException e ) {
+                /* expected */
+            }
+        }
+    }
+
+    public void testCorrupted() throws Exception {
+        Procedures code = compile();
+        ObjectFile.write( code, object, OPTIONS );
+        Procedures.ProcedureCode first = code.getProcedureEntries().get( 0 );
+        Code c = first.getCode();
+        assertFalse( c.getRelocations().isEmpty() );
+        /* Skip the header, the procedure count, and the name, levels,
+         * variable space and code size of the first procedure */
+        long words = 16 + 4 + OPTIONS.length() + 4 +
+            4 + first.getName().length() + 12 + 4;
+        /* Invalid opcodes */
+        assertCorrupted( words, 0x7f );
+        assertCorrupted( words, 0xffffffff );
+        /* Relocation positions outside the code */
+        long relocation = words + 4 * c.size() + 4;
+        assertCorrupted( relocation, -1 );
+        assertCorrupted( relocation, c.size() );
+        /* The file as written is still read */
+        assertNotNull( ObjectFile.read( object, OPTIONS ) );
+    }
+    /** Reading the file with the word at offset replaced must raise
+     * IOException; the original word is then restored */
+    private void assertCorrupted( long offset, int word ) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile( object, "rw" );
+        raf.seek( offset );
+        int original = raf.readInt();
+        raf.seek( offset );
+        raf.writeInt( word );
+        raf.close();
+        try {
+            ObjectFile.read( object, OPTIONS );
+            fail( "read a file with " + word + " at " + offset );
+        } catch( IOException e ) {
+            /* expected */
+        } finally {
+            raf = new RandomAccessFile( object, "rw" );
+            raf.seek( offset );
+            raf.writeInt( original );
+            raf.close();
+        }
+    }
+}
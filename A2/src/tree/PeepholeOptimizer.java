@@ -0,0 +1,111 @@
+package tree;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class PeepholeOptimizer - code pass applying a configurable set of
+ * peephole rules to the code of each procedure. The rules are applied
+ * at every instruction, repeatedly, until none of them applies (or
+ * MAX_PASSES passes have been made). The number of times each rule
+ * is applied is recorded for the statistics report.
+ */
+public class PeepholeOptimizer implements CodePass {
+    /** Limit on the number of passes over a procedure */
+    private static final int MAX_PASSES = 16;
+
+    /** Rules to be applied, in order of preference */
+    private List<PeepholeRule> rules;
+    /** Number of times each rule has been applied */
+    private Map<PeepholeRule,Integer> hits;
+    /** Total code size before and after optimization */
+    private int sizeBefore, sizeAfter;
+
+    /** Optimizer using the given rules */
+    public PeepholeOptimizer( PeepholeRule... rules ) {
+        this.rules = new ArrayList<PeepholeRule>();
+        this.hits = new LinkedHashMap<PeepholeRule,Integer>();
+        for( PeepholeRule rule : rules ) {
+            this.rules.add( rule );
+            hits.put( rule, 0 );
+        }
+        sizeBefore = 0;
+        sizeAfter = 0;
+    }
+    /** Optimizer using all the standard rules */
+    public PeepholeOptimizer() {
+        this( PeepholeRule.allRules() );
+    }
+    /** Optimizer using the rules named in a comma separated list.
+     * The names "size", "speed" and "all" stand for the standard rule sets.
+     * @throws IllegalArgumentException if a name is not that of a rule
+     */
+    public static PeepholeOptimizer forRules( String names ) {
+        List<PeepholeRule> selected = new ArrayList<PeepholeRule>();
+        for( String name : names.split( "," ) ) {
+            name = name.trim();
+            if( name.equals( "all" ) ) {
+                addAll( selected, PeepholeRule.allRules() );
+            } else if( name.equals( "size" ) ) {
+                addAll( selected, PeepholeRule.sizeRules() );
+            } else if( name.equals( "speed" ) ) {
+                addAll( selected, PeepholeRule.speedRules() );
+            } else {
+                PeepholeRule rule = PeepholeRule.lookup( name );
+                if( rule == null ) {
+                    throw new IllegalArgumentException(
+                            "Unknown peephole rule " + name );
+                }
+                selected.add( rule );
+            }
+        }
+        return new PeepholeOptimizer(
+                selected.toArray( new PeepholeRule[ selected.size() ] ) );
+    }
+    private static void addAll( List<PeepholeRule> list, PeepholeRule[] rules ) {
+        for( PeepholeRule rule : rules ) {
+            list.add( rule );
+        }
+    }
+
+    public Code transform( Code code ) {
+        sizeBefore += code.size();
+        CodeRewriter rewriter = CodeRewriter.create( code );
+        if( rewriter == null ) {
+            /* Contains a computed branch - leave it alone */
+            sizeAfter += code.size();
+            return code;
+        }
+        boolean changed = true;
+        for( int pass = 0; changed && pass < MAX_PASSES; pass++ ) {
+            changed = false;
+            for( int i = 0; i < rewriter.size(); i++ ) {
+                for( PeepholeRule rule : rules ) {
+                    if( i < rewriter.size() && rule.apply( rewriter, i ) ) {
+                        hits.put( rule, hits.get( rule ) + 1 );
+                        changed = true;
+                    }
+                }
+            }
+        }
+        Code result = rewriter.toCode();
+        sizeAfter += result.size();
+        return result;
+    }
+    /** @return number of times the rule has been applied */
+    public int getHits( PeepholeRule rule ) {
+        return hits.get( rule );
+    }
+    /** Print the number of times each rule was applied and the
+     * reduction in code size */
+    public void printStatistics( PrintStream out ) {
+        out.println( "Peephole optimization: code size " + sizeBefore +
+                " => " + sizeAfter + " words" );
+        for( PeepholeRule rule : rules ) {
+            out.println( "  " + rule.getName() + ": " + hits.get( rule ) );
+        }
+    }
+}
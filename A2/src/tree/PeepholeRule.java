@@ -0,0 +1,305 @@
+package tree;
+
+import machine.Instruction;
+import machine.Operation;
+
+/**
+ * class PeepholeRule - a rule of the peephole optimizer. Each rule
+ * recognises a short instruction sequence starting at a given index of
+ * the code being rewritten and replaces it by an equivalent, cheaper
+ * sequence. The standard rules are provided as nested classes and
+ * grouped into rule sets.
+ * Rules never rewrite a sequence containing the target of a branch
+ * (other than at its first instruction); CodeRewriter takes care of
+ * retargeting branches to the rewritten instructions.
+ */
+public abstract class PeepholeRule {
+
+    /** Name of the rule, as used in the rule set specification
+     * and in the statistics */
+    private String name;
+
+    protected PeepholeRule( String name ) {
+        this.name = name;
+    }
+    public String getName() {
+        return name;
+    }
+    /** Apply the rule at index i of the code.
+     * @return true if the code was rewritten
+     */
+    public abstract boolean apply( CodeRewriter code, int i );
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /** @return instruction to load a constant value */
+    protected static Instruction loadConstant( int value ) {
+        if( value == 0 ) {
+            return new Instruction( Operation.ZERO );
+        } else if( value == 1 ) {
+            return new Instruction( Operation.ONE );
+        } else {
+            return new Instruction.LoadConInstruction( value );
+        }
+    }
+    /** @return whether the operation always produces a boolean value */
+    protected static boolean isBooleanResult( Operation op ) {
+        return op == Operation.EQUAL || op == Operation.LESS ||
+            op == Operation.LESSEQ;
+    }
+
+    /*------------------------- Rule sets ---------------------------*/
+
+    /** @return the rules that reduce code size */
+    public static PeepholeRule[] sizeRules() {
+        return new PeepholeRule[] {
+            new BooleanNot(), new ConstantPop(), new DupPop(), new DupSwap(),
+            new SwapSwap(), new ConstantNegate(), new ConstantFold(),
+            new AddZero(), new BranchToNext(), new UnreachableCode()
+        };
+    }
+    /** @return the rules that reduce execution time only */
+    public static PeepholeRule[] speedRules() {
+        return new PeepholeRule[] {
+            new BranchChain()
+        };
+    }
+    /** @return all the standard rules */
+    public static PeepholeRule[] allRules() {
+        PeepholeRule[] size = sizeRules();
+        PeepholeRule[] speed = speedRules();
+        PeepholeRule[] all = new PeepholeRule[ size.length + speed.length ];
+        System.arraycopy( size, 0, all, 0, size.length );
+        System.arraycopy( speed, 0, all, size.length, speed.length );
+        return all;
+    }
+    /** Look up a standard rule by name.
+     * @return the rule or null if there is no rule of that name
+     */
+    public static PeepholeRule lookup( String name ) {
+        for( PeepholeRule rule : allRules() ) {
+            if( rule.getName().equals( name ) ) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /*------------------------- Standard rules ----------------------*/
+
+    /** Logical negation of a comparison, as generated by Code.genBoolNot:
+     *      cmp; NEGATE; ONE; ADD  =>  cmp; ONE; XOR
+     * where cmp is a comparison so the value negated is 0 or 1. */
+    public static class BooleanNot extends PeepholeRule {
+        public BooleanNot() {
+            super( "bool-not" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( isBooleanResult( code.getOp( i ) ) &&
+                    code.getOp( i + 1 ) == Operation.NEGATE &&
+                    code.getOp( i + 2 ) == Operation.ONE &&
+                    code.getOp( i + 3 ) == Operation.ADD &&
+                    !code.hasInteriorTarget( i, i + 4 ) ) {
+                code.replace( i + 1, i + 4, new Instruction( Operation.ONE ),
+                        new Instruction( Operation.XOR ) );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** A constant that is discarded:  const; POP  =>  */
+    public static class ConstantPop extends PeepholeRule {
+        public ConstantPop() {
+            super( "const-pop" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.isConstant( i ) && code.getOp( i + 1 ) == Operation.POP &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i, i + 2 );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** A duplicate that is discarded:  DUP; POP  =>  */
+    public static class DupPop extends PeepholeRule {
+        public DupPop() {
+            super( "dup-pop" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.getOp( i ) == Operation.DUP &&
+                    code.getOp( i + 1 ) == Operation.POP &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i, i + 2 );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** Swapping two equal values:  DUP; SWAP  =>  DUP */
+    public static class DupSwap extends PeepholeRule {
+        public DupSwap() {
+            super( "dup-swap" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.getOp( i ) == Operation.DUP &&
+                    code.getOp( i + 1 ) == Operation.SWAP &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i + 1, i + 2 );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** Swaps that cancel:  SWAP; SWAP  =>  */
+    public static class SwapSwap extends PeepholeRule {
+        public SwapSwap() {
+            super( "swap-swap" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.getOp( i ) == Operation.SWAP &&
+                    code.getOp( i + 1 ) == Operation.SWAP &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i, i + 2 );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** Negation of a constant:  const k; NEGATE  =>  const -k */
+    public static class ConstantNegate extends PeepholeRule {
+        public ConstantNegate() {
+            super( "const-negate" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.isConstant( i ) &&
+                    code.getOp( i + 1 ) == Operation.NEGATE &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i, i + 2, loadConstant( -code.getConstant( i ) ) );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** Constant folding of addition and multiplication:
+     *      const a; const b; ADD  =>  const a+b
+     *      const a; const b; MPY  =>  const a*b  */
+    public static class ConstantFold extends PeepholeRule {
+        public ConstantFold() {
+            super( "const-fold" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.isConstant( i ) && code.isConstant( i + 1 ) &&
+                    !code.hasInteriorTarget( i, i + 3 ) ) {
+                int a = code.getConstant( i );
+                int b = code.getConstant( i + 1 );
+                if( code.getOp( i + 2 ) == Operation.ADD ) {
+                    code.replace( i, i + 3, loadConstant( a + b ) );
+                    return true;
+                } else if( code.getOp( i + 2 ) == Operation.MPY ) {
+                    code.replace( i, i + 3, loadConstant( a * b ) );
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    /** Adding zero:  ZERO; ADD  => */
+    public static class AddZero extends PeepholeRule {
+        public AddZero() {
+            super( "add-zero" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( code.isConstant( i ) && code.getConstant( i ) == 0 &&
+                    code.getOp( i + 1 ) == Operation.ADD &&
+                    !code.hasInteriorTarget( i, i + 2 ) ) {
+                code.replace( i, i + 2 );
+                return true;
+            }
+            return false;
+        }
+    }
+    /** A branch to the instruction following it, e.g. over an empty
+     * else part: an unconditional branch is removed and a conditional
+     * branch is replaced by a POP of its (boolean) condition. */
+    public static class BranchToNext extends PeepholeRule {
+        public BranchToNext() {
+            super( "branch-next" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( !code.isBranchOffset( i ) ) {
+                return false;
+            }
+            int next = i + code.branchLength( i );
+            if( code.indexOf( code.getTarget( i ) ) != next ||
+                    code.hasInteriorTarget( i, next ) ) {
+                return false;
+            }
+            if( code.isUnconditional( i ) ) {
+                code.replace( i, next );
+            } else {
+                code.replace( i, next, new Instruction( Operation.POP ) );
+            }
+            return true;
+        }
+    }
+    /** Code following an unconditional branch, RETURN or STOP that is not
+     * the target of any branch can never be executed and is removed. */
+    public static class UnreachableCode extends PeepholeRule {
+        public UnreachableCode() {
+            super( "unreachable" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            int start;
+            Operation op = code.getOp( i );
+            if( op == Operation.RETURN || op == Operation.STOP ) {
+                start = i + 1;
+            } else if( code.isBranchOffset( i ) && code.isUnconditional( i ) ) {
+                start = i + code.branchLength( i );
+            } else {
+                return false;
+            }
+            int end = start;
+            while( end < code.size() && !code.isTarget( end ) ) {
+                end++;
+            }
+            Operation last = code.getOp( end );
+            if( end == start ||
+                    last == Operation.BR || last == Operation.BR_FALSE ) {
+                /* Nothing to remove or it would split a branch */
+                return false;
+            }
+            code.replace( start, end );
+            return true;
+        }
+    }
+    /** A branch to an unconditional branch is redirected to the final
+     * destination of the chain of branches. */
+    public static class BranchChain extends PeepholeRule {
+        public BranchChain() {
+            super( "branch-chain" );
+        }
+        public boolean apply( CodeRewriter code, int i ) {
+            if( !code.isBranchOffset( i ) ) {
+                return false;
+            }
+            CodeRewriter.Node target = code.getTarget( i );
+            Instruction inst = target.getInstruction();
+            if( inst == null || (inst.getOp() != Operation.LOAD_CON &&
+                    inst.getOp() != Operation.BR_CON) ) {
+                /* Quick check the target cannot be a branch */
+                return false;
+            }
+            int t = code.indexOf( target );
+            if( !code.isBranchOffset( t ) || !code.isUnconditional( t ) ||
+                    code.getTarget( t ) == target ) {
+                return false;
+            }
+            code.setTarget( i, code.getTarget( t ) );
+            return true;
+        }
+    }
+}
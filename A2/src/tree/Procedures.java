@@ -1,5 +1,6 @@
 package tree;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -20,6 +21,9 @@ public class Procedures {
     private List<ProcedureCode> procEntries;
     /** Current code location for tracking start addresses of procedures */
     private int current;
+    /** Map from code addresses to procedures - built when first requested
+     * and discarded whenever the code changes */
+    private AddressMap<ProcedureCode> addressMap;
 
     public class ProcedureCode {
         SymEntry.ProcedureEntry procEntry;
@@ -58,16 +62,46 @@ public class Procedures {
     }
     public void addProcedure( SymEntry.ProcedureEntry procEntry, Code code ) {
         procEntries.add( new ProcedureCode( procEntry, code ) );
+        addressMap = null;
+    }
+    /** Apply a code improvement pass to the code of each procedure.
+     * As the pass may change the size of the code, the start and finish
+     * addresses of the procedures are recalculated.
+     * @param pass to be applied
+     */
+    public void applyPass( CodePass pass ) {
+        current = StackMachine.CODE_START;
+        for( ProcedureCode ps : procEntries ) {
+            ps.code = pass.transform( ps.code );
+            ps.procEntry.setStart( current );
+            current += ps.code.size();
+            ps.finish = current;
+        }
+        addressMap = null;
+    }
+    /** @return map from code addresses to the procedures containing them.
+     * The map is not affected by any later changes to the code. */
+    public AddressMap<ProcedureCode> getAddressMap() {
+        if( addressMap == null ) {
+            List<ProcedureCode> procs = new ArrayList<ProcedureCode>( procEntries );
+            int[] starts = new int[ procs.size() ];
+            int[] finishes = new int[ procs.size() ];
+            for( int i = 0; i < procs.size(); i++ ) {
+                starts[i] = procs.get(i).procEntry.getStart();
+                finishes[i] = procs.get(i).finish;
+            }
+            addressMap = new AddressMap<ProcedureCode>( procs, starts, finishes );
+        }
+        return addressMap;
     }
     public ProcedureCode getProcedure( int pc ) {
         if( pc < StackMachine.CODE_START || current <= pc ) {
             // Must be in main program setup or finalization code
             return null;
         }
-        for( ProcedureCode ps : procEntries ) {
-            if( pc < ps.finish ) {
-                return ps;
-            }
+        ProcedureCode ps = getAddressMap().lookup( pc );
+        if( ps != null ) {
+            return ps;
         }
         // Can't get here
         ErrorHandler.getErrorHandler().fatal(
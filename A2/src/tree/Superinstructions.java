@@ -0,0 +1,102 @@
+package tree;
+
+import machine.Instruction;
+import machine.Operation;
+import machine.StackMachine;
+
+/**
+ * class Superinstructions - code pass that fuses the instruction sequences
+ * commonly generated by Code (e.g. by genMemRef, genLoad, genJumpIfFalse
+ * and genBoundsCheck) into single superinstructions:
+ *      const k; LOAD_FRAME                 =>  LOAD_LOCAL k
+ *      const k; STORE_FRAME                =>  STORE_LOCAL k
+ *      const k; ADD                        =>  ADD_CON k
+ *      LOAD_CON k; BR                      =>  BR_CON k
+ *      LOAD_CON k; BR_FALSE                =>  BR_FALSE_CON k
+ *      const lower; const upper; BOUND     =>  BOUND_CON lower upper
+ * where const is any of LOAD_CON, ZERO or ONE. The nil check generated for
+ * a pointer dereference by CodeGenerator.visitDerefPointerNode
+ *      DUP; const NULL_ADDR; EQUAL; LOAD_CON 3; BR_FALSE;
+ *      const NIL_POINTER; STOP; TO_LOCAL   =>  TO_LOCAL_CHECKED
+ * is also fused, as the branch over the STOP is then not needed.
+ * A sequence is only fused if no branch targets an instruction within it
+ * (other than the first, or the TO_LOCAL of a nil check from its own
+ * branch). Branch offsets are recalculated.
+ */
+public class Superinstructions implements CodePass {
+
+    public Code transform( Code code ) {
+        CodeRewriter rewriter = CodeRewriter.create( code );
+        if( rewriter == null ) {
+            /* Contains a computed branch - leave it alone */
+            return code;
+        }
+        for( int i = 0; i < rewriter.size(); i++ ) {
+            fuse( rewriter, i );
+        }
+        return rewriter.toCode();
+    }
+    /** Fuse the sequence starting at index i, if there is one */
+    private void fuse( CodeRewriter rewriter, int i ) {
+        if( isNilCheck( rewriter, i ) ) {
+            rewriter.setTarget( i + 3, null );
+            rewriter.replace( i, i + 8, 
+                    new Instruction( Operation.TO_LOCAL_CHECKED ) );
+        } else if( rewriter.isConstant( i ) && rewriter.isConstant( i + 1 ) &&
+                rewriter.getOp( i + 2 ) == Operation.BOUND &&
+                !rewriter.hasInteriorTarget( i, i + 3 ) ) {
+            rewriter.replace( i, i + 3, new Instruction.FusedInstruction(
+                    Operation.BOUND_CON, rewriter.getConstant( i ),
+                    rewriter.getConstant( i + 1 ) ) );
+        } else if( rewriter.isConstant( i ) &&
+                !rewriter.hasInteriorTarget( i, i + 2 ) ) {
+            Operation fused = fusedWithConstant( rewriter.getOp( i + 1 ) );
+            if( fused != null ) {
+                rewriter.replace( i, i + 2, new Instruction.FusedInstruction(
+                        fused, rewriter.getConstant( i ) ) );
+            }
+        } else if( rewriter.isBranchOffset( i ) &&
+                rewriter.branchLength( i ) == 2 &&
+                !rewriter.hasInteriorTarget( i, i + 2 ) ) {
+            Operation fused = rewriter.isUnconditional( i ) ?
+                    Operation.BR_CON : Operation.BR_FALSE_CON;
+            CodeRewriter.Node target = rewriter.getTarget( i );
+            rewriter.replace( i, i + 2,
+                    new Instruction.FusedInstruction( fused, 0 ) );
+            rewriter.setTarget( i, target );
+        }
+    }
+    /** @return whether the nil check of a pointer dereference starts at
+     * index i, with only its own branch targeting its TO_LOCAL */
+    private boolean isNilCheck( CodeRewriter rewriter, int i ) {
+        return rewriter.getOp( i ) == Operation.DUP &&
+            rewriter.isConstant( i + 1 ) &&
+            rewriter.getConstant( i + 1 ) == StackMachine.NULL_ADDR &&
+            rewriter.getOp( i + 2 ) == Operation.EQUAL &&
+            rewriter.getOp( i + 4 ) == Operation.BR_FALSE &&
+            rewriter.isBranchOffset( i + 3 ) &&
+            rewriter.isConstant( i + 5 ) &&
+            rewriter.getConstant( i + 5 ) == StackMachine.NIL_POINTER &&
+            rewriter.getOp( i + 6 ) == Operation.STOP &&
+            rewriter.getOp( i + 7 ) == Operation.TO_LOCAL &&
+            rewriter.getTarget( i + 3 ) == rewriter.getNode( i + 7 ) &&
+            !rewriter.hasInteriorTarget( i, i + 7 ) &&
+            rewriter.targetCount( i + 7 ) == 1;
+    }
+    /** @return superinstruction for a constant followed by op, or null */
+    private Operation fusedWithConstant( Operation op ) {
+        if( op == null ) {
+            return null;
+        }
+        switch( op ) {
+        case LOAD_FRAME:
+            return Operation.LOAD_LOCAL;
+        case STORE_FRAME:
+            return Operation.STORE_LOCAL;
+        case ADD:
+            return Operation.ADD_CON;
+        default:
+            return null;
+        }
+    }
+}
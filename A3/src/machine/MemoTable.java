@@ -0,0 +1,84 @@
+package machine;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * class MemoTable - results of calls of pure functions, keyed on the
+ * address of the function and the words of its parameters, so that a
+ * repeated call (see Operation.MEMO_CALL) can use the result without
+ * executing the function. The table holds a bounded number of results,
+ * evicting the least recently used.
+ */
+class MemoTable {
+    /** Default number of results held */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /** A call of a function: its address and the words of its
+     * parameters */
+    static class Call {
+        private final int[] words;
+        private final int hash;
+
+        Call( int[] words ) {
+            this.words = words;
+            this.hash = Arrays.hashCode( words );
+        }
+        @Override
+        public boolean equals( Object other ) {
+            return other instanceof Call &&
+                Arrays.equals( words, ((Call)other).words );
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** Results of the calls, in least recently used order */
+    private final Map<Call,Integer> results;
+    private long hits = 0;
+    private long misses = 0;
+
+    MemoTable( final int capacity ) {
+        results = new LinkedHashMap<Call,Integer>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Call,Integer> eldest ) {
+                return size() > capacity;
+            }
+        };
+    }
+    /** @return the call of the function at address with the given
+     * parameter words
+     * @param address of the function
+     * @param params words of the parameters of the call */
+    static Call call( int address, int[] params ) {
+        int[] words = Arrays.copyOf( params, params.length + 1 );
+        words[params.length] = address;
+        return new Call( words );
+    }
+    /** @return the result recorded for the call, or null if there is
+     * none, counting the hit or miss */
+    Integer lookup( Call call ) {
+        Integer result = results.get( call );
+        if( result == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+    /** Record the result of the call */
+    void store( Call call, int result ) {
+        results.put( call, result );
+    }
+    /** Print the hit and miss counts */
+    void print( PrintStream out ) {
+        out.println( "Memoized calls: " + hits + " hits, " + misses +
+                " misses, " + results.size() + " results held" );
+    }
+}
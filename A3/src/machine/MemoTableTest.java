@@ -0,0 +1,89 @@
+package machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * class MemoTableTest - Junit test of MemoTable class.
+ */
+public class MemoTableTest extends TestCase {
+
+    private MemoTable memo;
+
+    public MemoTableTest(String testName) {
+        super(testName);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        memo = new MemoTable( 2 );
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        memo = null;
+    }
+
+    public void testLookupAndStore() {
+        MemoTable.Call call = MemoTable.call( 1000, new int[] { 5 } );
+        assertNull( memo.lookup( call ) );
+        memo.store( call, 120 );
+        assertEquals( Integer.valueOf( 120 ), memo.lookup( call ) );
+        /* An equal key built separately finds the same result */
+        assertEquals( Integer.valueOf( 120 ),
+                memo.lookup( MemoTable.call( 1000, new int[] { 5 } ) ) );
+    }
+
+    public void testParameters() {
+        memo.store( MemoTable.call( 1000, new int[] { 1, 2 } ), 3 );
+        assertNull( memo.lookup( MemoTable.call( 1000, new int[] { 2, 1 } ) ) );
+        assertNull( memo.lookup( MemoTable.call( 1000, new int[] { 1 } ) ) );
+    }
+
+    public void testAddress() {
+        /* Keys that differ only in the address of the function */
+        memo.store( MemoTable.call( 1000, new int[] { 5 } ), 1 );
+        memo.store( MemoTable.call( 1010, new int[] { 5 } ), 2 );
+        assertEquals( Integer.valueOf( 1 ),
+                memo.lookup( MemoTable.call( 1000, new int[] { 5 } ) ) );
+        assertEquals( Integer.valueOf( 2 ),
+                memo.lookup( MemoTable.call( 1010, new int[] { 5 } ) ) );
+        assertNull( memo.lookup( MemoTable.call( 1020, new int[] { 5 } ) ) );
+        /* The address is not confused with a parameter */
+        assertNull( memo.lookup( MemoTable.call( 5, new int[] { 1000 } ) ) );
+        assertNull( memo.lookup( MemoTable.call( 1000, new int[0] ) ) );
+    }
+
+    public void testEviction() {
+        MemoTable.Call a = MemoTable.call( 1000, new int[] { 1 } );
+        MemoTable.Call b = MemoTable.call( 1000, new int[] { 2 } );
+        MemoTable.Call c = MemoTable.call( 1000, new int[] { 3 } );
+        memo.store( a, 1 );
+        memo.store( b, 2 );
+        /* Using a makes b the least recently used */
+        assertEquals( Integer.valueOf( 1 ), memo.lookup( a ) );
+        memo.store( c, 3 );
+        assertNull( memo.lookup( b ) );
+        assertEquals( Integer.valueOf( 1 ), memo.lookup( a ) );
+        assertEquals( Integer.valueOf( 3 ), memo.lookup( c ) );
+        /* Replacing a result does not evict */
+        memo.store( c, 4 );
+        assertEquals( Integer.valueOf( 1 ), memo.lookup( a ) );
+        assertEquals( Integer.valueOf( 4 ), memo.lookup( c ) );
+    }
+
+    public void testCounts() {
+        MemoTable.Call call = MemoTable.call( 1000, new int[] { 5 } );
+        memo.lookup( call );
+        memo.store( call, 120 );
+        memo.lookup( call );
+        memo.lookup( call );
+        memo.lookup( MemoTable.call( 1000, new int[] { 6 } ) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        memo.print( new PrintStream( out, true ) );
+        assertEquals( "Memoized calls: 2 hits, 2 misses, 1 results held",
+                out.toString().trim() );
+    }
+}
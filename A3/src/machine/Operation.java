@@ -13,6 +13,9 @@ public enum Operation {
     /* Procedure call and return */
     CALL(),            /* Call */
     RETURN(),          /* Exit stack frame and return */
+    TAIL_CALL(),       /* Call reusing the current stack frame */
+    MEMO_CALL(),       /* Call of a pure function, unless its result for
+                          the parameters is already known */
     /* Stack manipulation */
     ALLOC_STACK(),     /* Allocate space on stack frame */
     DEALLOC_STACK(),   /* Deallocate space from stack */
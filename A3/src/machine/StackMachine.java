@@ -3,6 +3,7 @@ package machine;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.EnumSet;
+import java.util.Stack;
 import java.io.PrintStream;
 
 import source.ErrorHandler;
@@ -85,6 +86,14 @@ public class StackMachine {
     private int sp = STACK_START;
     /** Top of stack limit = bottom of heap limit */
     private int limit = CODE_START;
+    /** Results of calls of pure functions, created by the first
+     * MEMO_CALL executed */
+    private MemoTable memo = null;
+    /** Frame pointer, result address and memo table key of each call
+     * made by MEMO_CALL that has not yet returned */
+    private Stack<Integer> memoFrames = new Stack<Integer>();
+    private Stack<Integer> memoResults = new Stack<Integer>();
+    private Stack<MemoTable.Call> memoCalls = new Stack<MemoTable.Call>();
     /** Standard input line reader */
     private BufferedReader in =
         new BufferedReader( new InputStreamReader (System.in) );
@@ -147,6 +156,9 @@ public class StackMachine {
             execInstruction();
         }
         outStream.println("\nTerminated");
+        if( memo != null ) {
+            memo.print( outStream );
+        }
         // dumpStack();
     }
 
@@ -395,7 +407,70 @@ public class StackMachine {
                 outStream.print("\n      Call => " + proc.getName() + " at " + pc);
             }
             break;
+        case TAIL_CALL: /* Execute a call in place of the current procedure */
+            addr = pop();       /* pop address of procedure */
+            int params = pop(); /* pop size of the parameters */
+            int staticLink = pop();
+            /* Overwrite the parameters of the current frame with those
+             * for the procedure (on top of the stack) and replace its
+             * static link. The dynamic link and return address are kept,
+             * so the procedure returns directly to the current caller. */
+            for( int i = 1; i <= params && running; i++ ) {
+                storeValue( fp - i, loadValue( sp - i ) );
+            }
+            storeValue( fp, staticLink );
+            sp = fp + 3;        /* deallocate the locals of the frame */
+            pc = addr;          /* branch to procedure */
+            if (tracing.contains(Trace.CALLS)) {
+                Procedures.ProcedureCode proc = procedures.getProcedure( pc );
+                outStream.print("\n      Tail call => " + proc.getName() + 
+                        " at " + pc);
+            }
+            break;
+        case MEMO_CALL: /* Execute a call of a pure function */
+            addr = pop();       /* pop address of procedure */
+            params = pop();     /* pop size of the parameters */
+            if( memo == null ) {
+                memo = new MemoTable( MemoTable.DEFAULT_CAPACITY );
+            }
+            /* The parameters are below the static link */
+            int[] words = new int[ params ];
+            for( int i = 0; i < params; i++ ) {
+                words[i] = loadValue( sp - 1 - params + i );
+            }
+            MemoTable.Call call = MemoTable.call( addr, words );
+            Integer result = memo.lookup( call );
+            if( result != null ) {
+                /* Store the known result below the parameters */
+                pop();          /* remove the static link */
+                storeValue( sp - params - 1, result );
+                if (tracing.contains(Trace.CALLS)) {
+                    outStream.print("\n      Memoized call => " + 
+                        procedures.getProcedure( addr ).getName() + 
+                        " = " + result);
+                }
+                break;
+            }
+            /* Record the result when the call returns */
+            memoFrames.push( sp - 1 );
+            memoResults.push( sp - params - 2 );
+            memoCalls.push( call );
+            push(fp);           /* push fp to create the dynamic link */
+            fp = sp - 2;        /* frame pointer addresses static link */
+            push(pc);           /* save return address */
+            pc = addr;          /* branch to procedure */
+            if (tracing.contains(Trace.CALLS)) {
+                Procedures.ProcedureCode proc = procedures.getProcedure( pc );
+                outStream.print("\n      Call => " + proc.getName() + " at " + pc);
+            }
+            break;
         case RETURN: /* Return to caller */
+            if( !memoFrames.isEmpty() && memoFrames.peek() == fp ) {
+                /* Return from a call made by MEMO_CALL */
+                memoFrames.pop();
+                memo.store( memoCalls.pop(), 
+                        loadValue( memoResults.pop() ) );
+            }
             sp = fp + 3;   /* Set stack pointer so next pop is return address
                               this will also deallocate any locals */ 
             pc = pop();    /* Set program counter to return address. */
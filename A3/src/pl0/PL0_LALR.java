@@ -28,10 +28,12 @@ public class PL0_LALR {
     public static void usage() {
         outStream.println(
             "PL0 Compiler\n" +
-            "Usage: java pl0.PL0_LALR [-cdhptv] <filename>\n"+
+            "Usage: java pl0.PL0_LALR [-cdfhjptv] <filename>\n"+
             "  -d  =  debug messages on\n" +
             "  -p  =  parse only (no static check or code gen)\n" +
             "  -c  =  parse and static check only (no code gen)\n" +
+            "  -j  =  generate calls in tail position as tail calls\n" +
+            "  -f  =  memoize calls of pure functions\n" +
             "  -v  =  verbose output of generated code\n" +
             "  -t  =  trace execution of resulting code\n" +
             "  -h  =  output this usage information\n" +
@@ -56,6 +58,10 @@ public class PL0_LALR {
         boolean genCode = true;
         /** Detailed trace of execution */
         boolean tracing = false;
+        /** Generate tail calls */
+        boolean tailCalls = false;
+        /** Memoize pure functions */
+        boolean memoize = false;
         /** Verbose output of code generation */
         boolean verbose = false;
         /** Debug mode for parser - quite verbose */
@@ -75,6 +81,12 @@ public class PL0_LALR {
                 case 'c': /* Parse and static check only */
                     genCode = false;
                     break;
+                case 'j': /* Tail calls */
+                    tailCalls = true;
+                    break;
+                case 'f': /* Memoize pure functions */
+                    memoize = true;
+                    break;
                 case 'v': /* Verbose output (of generated code) */
                     verbose = true;
                     break;
@@ -101,7 +113,8 @@ public class PL0_LALR {
             /* Set up the error handler reference */
             errors = new ErrorHandler( outStream, src, debug );
             /* Compile the program */
-            code = compile( src, errors, verbose, staticCheck, genCode, debug );
+            code = compile( src, errors, verbose, staticCheck, genCode, debug,
+                    tailCalls, memoize );
             if( code != null ) { /* run it if possible */
                 StackMachine machine;
                 machine = new StackMachine( errors, outStream, verbose, code );
@@ -126,11 +139,13 @@ public class PL0_LALR {
      * @param staticCheck do the static checking
      * @param genCode perform the code generation
      * @param debugParse debugging messages during parsing 
+     * @param tailCalls generate calls in tail position as tail calls
+     * @param memoize memoize calls of pure functions
      * @return generated code for procedures
      */
     private static Procedures compile( Source src, Errors errors,
             boolean verbose, boolean staticCheck, boolean genCode, 
-            boolean debugParse ) 
+            boolean debugParse, boolean tailCalls, boolean memoize ) 
         throws IOException, Exception
     {
         /** Abstract syntax tree returned by parser */
@@ -178,6 +193,8 @@ public class PL0_LALR {
         if( tree != null && genCode ) {
             /* Generate the stack machine code */
             CodeGenerator codeGen = new CodeGenerator( errors );
+            codeGen.setTailCalls( tailCalls );
+            codeGen.setMemoize( memoize );
             code = codeGen.generateCode( tree );
             outStream.println( "Code generation complete" );
         }
@@ -242,6 +242,12 @@ public abstract class SymEntry {
         private int start;
         /** Scope of entries declared locally to the procedure */
         private Scope localScope;
+        /** Whether every path through the body of the function executes
+         * a return, so that its result is always set */
+        private boolean alwaysReturns = false;
+        /** Whether the function is pure: its result depends only on its
+         * parameters and it has no side effects */
+        private boolean pure = false;
 
         public ProcedureEntry( String id, Location p, 
                                   Type.ProcedureType type ) {
@@ -260,6 +266,18 @@ public abstract class SymEntry {
         public void setLocalScope( Scope localScope ) {
             this.localScope = localScope;
         }
+        public boolean alwaysReturns() {
+            return alwaysReturns;
+        }
+        public void setAlwaysReturns( boolean alwaysReturns ) {
+            this.alwaysReturns = alwaysReturns;
+        }
+        public boolean isPure() {
+            return pure;
+        }
+        public void setPure( boolean pure ) {
+            this.pure = pure;
+        }
        public int getStart() {
             return start;
         }
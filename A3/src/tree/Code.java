@@ -147,6 +147,39 @@ public class Code {
         genProcCallRef( proc );
         generateOp( Operation.CALL );
     }
+    /** Generate the code for a tail call, which replaces the frame of
+     * the current procedure by that of the procedure called.
+     * The parameters of the procedure called must already be on the
+     * stack, and must take the same space as those of the current one.
+     * @param levelDiff difference between the static level being 
+     * called and the current level.
+     * @param paramSpace space taken by the parameters of both procedures
+     * @param proc entry of the procedure being called
+     * @requires 0 < levelDiff, so that the static link is not to the
+     * frame being replaced
+     */
+    public void genTailCall( int levelDiff, int paramSpace,
+            SymEntry.ProcedureEntry proc ) {
+        genStaticLink( levelDiff );
+        genLoadConstant( paramSpace );
+        genProcCallRef( proc );
+        generateOp( Operation.TAIL_CALL );
+    }
+    /** Generate the code for a call of a pure function, which uses the
+     * result of an earlier call with the same parameters if the stack
+     * machine has it, rather than calling the function.
+     * @param levelDiff difference between the static level being 
+     * called and the current level.
+     * @param paramSpace space taken by the parameters of the function
+     * @param proc entry of the function being called
+     */
+    public void genMemoCall( int levelDiff, int paramSpace,
+            SymEntry.ProcedureEntry proc ) {
+        genStaticLink( levelDiff );
+        genLoadConstant( paramSpace );
+        genProcCallRef( proc );
+        generateOp( Operation.MEMO_CALL );
+    }
     /** Generate code to push the static link for a procedure.
      * @param levelDiff is the difference in static levels between 
      * the calling procedure and the called procedure.
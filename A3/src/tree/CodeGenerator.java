@@ -29,6 +29,19 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     private Errors errors;
     /** Track the tree node currently being checked (for debugging) */
     private Stack<String> nodeStack;
+    /** Whether calls of pure functions are memoized */
+    private boolean memoize = false;
+    /** Whether calls in tail position are generated as tail calls */
+    private boolean tailCalls = false;
+    /** Procedure whose code is being generated */
+    private SymEntry.ProcedureEntry currentProc;
+    /** Whether the statement being generated is the last one executed
+     * by the current procedure before it returns, so that a call made
+     * by it may be generated as a tail call */
+    private boolean tailPosition = false;
+
+    /** Value of the result of a function before a return has set it */
+    private static final int NO_RESULT = 0x80808080;
 
     public CodeGenerator(Errors errors) {
         super();
@@ -37,6 +50,22 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         procedures = new Procedures();
     }
 
+    /** Select whether calls that are the last action of a procedure
+     * are generated as tail calls, which reuse the frame of the calling
+     * procedure and so run in constant stack space. The frames replaced
+     * no longer appear in a trace back. */
+    public void setTailCalls( boolean tailCalls ) {
+        this.tailCalls = tailCalls;
+    }
+
+    /** Select whether calls of functions classified as pure by the
+     * static checker are memoized: the stack machine keeps the result
+     * of each call, and uses it for later calls with the same
+     * parameters instead of calling the function again. */
+    public void setMemoize( boolean memoize ) {
+        this.memoize = memoize;
+    }
+
     /*-------------------- Main Method to start code generation --------*/
 
     /** Main generate code for this tree. */
@@ -53,33 +82,17 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     /* -------------------- Visitor methods ----------------------------*/
 
     /**
-     * Generates code for the parameters
+     * Generates code for the parameters, in reverse order of the
+     * formal parameters, from the expressions bound to them by the
+     * static checker
      *
-     * @param proc The procedure entry
-     * @param params The actual parameters of the node
+     * @param params The expression bound to each formal parameter
      */
-    private Code generateParams(SymEntry.ProcedureEntry proc, List<ExpNode.ActualParamNode> params) {
+    private Code generateParams(List<ExpNode> params) {
         Code code = new Code();
 
-        List<SymEntry.ParamEntry> formalParams = proc.getType().getFormalParams();	
-        
-        for (int i = formalParams.size() - 1; i >= 0; i--) {
-            SymEntry.ParamEntry formal = formalParams.get(i);
-            boolean foundParam = false;
-
-            for (ExpNode.ActualParamNode param : params) {
-                // Check the identifier
-                if (param.getIdentifier().equals(formal.getIdent())) {
-                    foundParam = true;
-                    code.append( param.genCode( this ) );
-                }
-            }
-            
-            // Use the default parameter
-            if (foundParam == false) {
-                code.append( formal.getDefaultExp().genCode( this ) );
-            }
- 
+        for (int i = params.size() - 1; i >= 0; i--) {
+            code.append( params.get(i).genCode( this ) );
         }
 
         return code;
@@ -108,24 +121,39 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         // Generate a position to store the return value
         Scope scope = proc.getLocalScope();
 
-        // Set the return value, and a garbage value
-        code.genLoadConstant( 0x80808080 );
+        if( proc.alwaysReturns() ) {
+            // Allocate the return value, which is always set
+            code.generateOp( Operation.ZERO );
+        } else {
+            // Set the return value, and a garbage value
+            code.genLoadConstant( NO_RESULT );
+        }
         
         // Generate the parameters
-        code.append( generateParams(proc, node.getParameters()) );
+        code.append( generateParams(node.getBoundParameters()) );
 
         /* Generate the call instruction. The second parameter is the
          * procedure's symbol table entry. The actual address is resolved 
          * at load time.
          */
-        code.genCall( staticLevel - proc.getLevel(), proc );
-
         int paramValueSize = scope.getValueParameterSpace();
+        if( memoize && proc.isPure() ) {
+            code.genMemoCall( staticLevel - proc.getLevel(), 
+                    paramValueSize, proc );
+        } else {
+            code.genCall( staticLevel - proc.getLevel(), proc );
+        }
+
         code.genDeallocStack(paramValueSize);
+        if( proc.alwaysReturns() ) {
+            // The function has been shown to return on every path
+            endGen( "ReturnExp" );
+            return code;
+        }
         
         // Return address is here, should be top of the stack
         code.generateOp( Operation.DUP );
-        code.genLoadConstant( 0x80808080 );
+        code.genLoadConstant( NO_RESULT );
         code.generateOp( Operation.EQUAL );
 
         code.genLoadConstant( 3 );
@@ -143,6 +171,32 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         beginGen( "ReturnNode" );
 
         Code code = new Code();
+        ExpNode exp = node.getReturnCondition();
+        if( exp instanceof ExpNode.WidenSubrangeNode ) {
+            exp = ((ExpNode.WidenSubrangeNode)exp).getExp();
+        }
+        if( exp instanceof ExpNode.ReturnExpNode && 
+                isTailReturn( ((ExpNode.ReturnExpNode)exp).getEntry() ) ) {
+            /* The function called stores its result directly into the
+             * result of this function, which it replaces. Unless the
+             * function called always returns, the result is reset so
+             * that it not returning is detected by the caller of this
+             * function. */
+            ExpNode.ReturnExpNode call = (ExpNode.ReturnExpNode)exp;
+            SymEntry.ProcedureEntry proc = call.getEntry();
+            int paramSpace = 
+                proc.getLocalScope().getValueParameterSpace();
+            if( !proc.alwaysReturns() ) {
+                code.genLoadConstant( NO_RESULT );
+                code.genLoadConstant( -(paramSpace + 1) );
+                code.generateOp( Operation.STORE_FRAME );
+            }
+            code.append( generateParams( call.getBoundParameters() ) );
+            code.genTailCall( staticLevel - proc.getLevel(), paramSpace,
+                    proc );
+            endGen( "ReturnNode" );
+            return code;
+        }
         // Push return onto stack before returning?
         code.append( node.getReturnCondition().genCode( this ) );
 
@@ -160,7 +214,10 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     public void visitProcedureNode( DeclNode.ProcedureNode node ) {
         beginGen( "Procedure" );
         // Generate code for the block
+        SymEntry.ProcedureEntry outerProc = currentProc;
+        currentProc = node.getProcEntry();
         Code code = visitBlockNode( node.getBlock() );
+        currentProc = outerProc;
 
         procedures.addProcedure( node.getProcEntry(), code );
         endGen( "Procedure" );
@@ -174,8 +231,11 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
          */
         Code code = new Code();
         code.genAllocStack( node.getBlockLocals().getVariableSpace() );
-        /* Generate the code for the body */
+        /* Generate the code for the body, the end of which is followed
+         * only by the return */
+        tailPosition = true;
         code.append( node.getBody().genCode( this ) );
+        tailPosition = false;
         code.generateOp( Operation.RETURN );
         /** Generate code for local procedures. */
         /* Static level is one greater for the procedures. */
@@ -234,15 +294,22 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         // Create a new scope
         Scope scope = proc.getLocalScope();
 
-        code.append( generateParams(proc, node.getParameters()) );
+        code.append( generateParams(node.getBoundParameters()) );
 
+        int paramValueSize = scope.getValueParameterSpace();
+        if( isTailCall( proc ) ) {
+            /* The procedure called returns directly to our caller */
+            code.genTailCall( staticLevel - proc.getLevel(), 
+                    paramValueSize, proc );
+            endGen( "Call" );
+            return code;
+        }
         /* Generate the call instruction. The second parameter is the
          * procedure's symbol table entry. The actual address is resolved 
          * at load time.
          */
         code.genCall( staticLevel - proc.getLevel(), proc );
         
-        int paramValueSize = scope.getValueParameterSpace();
         code.genDeallocStack(paramValueSize);
 
         endGen( "Call" );
@@ -252,9 +319,14 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
     public Code visitStatementListNode( StatementNode.ListNode node ) {
         beginGen( "StatementList" );
         Code code = new Code();
-        for( StatementNode s : node.getStatements() ) {
-            code.append( s.genCode( this ) );
+        boolean tail = tailPosition;
+        List<StatementNode> statements = node.getStatements();
+        for( int i = 0; i < statements.size(); i++ ) {
+            /* Only the last statement may be in tail position */
+            tailPosition = tail && i == statements.size() - 1;
+            code.append( statements.get( i ).genCode( this ) );
         }
+        tailPosition = tail;
         endGen( "StatementList" );
         return code;
     }
@@ -284,8 +356,12 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
         beginGen( "While" );
         /* Generate the code to evaluate the condition. */
         Code code = node.getCondition().genCode( this );
-        /* Generate the code for the loop body */
+        /* Generate the code for the loop body, which is never followed
+         * directly by the return */
+        boolean tail = tailPosition;
+        tailPosition = false;
         Code bodyCode = node.getLoopStmt().genCode( this );
+        tailPosition = tail;
         /* Add a branch over the loop body on false.
          * The offset is the size of the loop body code plus 
          * the size of the branch to follow the body.
@@ -479,6 +555,28 @@ public class CodeGenerator implements DeclVisitor, StatementTransform<Code>,
                     " does not match start node " + popped);
         }
     }
+    /** A call to proc can be a tail call if it is in tail position, the
+     * static link of proc is not to the frame of the current procedure
+     * (i.e. proc is not declared within it) and the parameters of proc
+     * take the same space as those of the current procedure. The frame
+     * of the current procedure can then be reused for proc, and the
+     * parameters of the current procedure deallocated by its caller 
+     * are those of proc.
+     * @return whether a call to proc can be generated as a tail call */
+    private boolean isTailCall( SymEntry.ProcedureEntry proc ) {
+        return tailCalls && tailPosition && staticLevel - proc.getLevel() > 0 &&
+            proc.getLocalScope().getValueParameterSpace() ==
+                currentProc.getLocalScope().getValueParameterSpace();
+    }
+    /** The result of a function tail called from a return is not
+     * checked by the caller of the current function if the current
+     * function always returns, so the function called must too.
+     * @return whether a call to function proc from a return statement
+     * can be generated as a tail call */
+    private boolean isTailReturn( SymEntry.ProcedureEntry proc ) {
+        return isTailCall( proc ) && 
+            (proc.alwaysReturns() || !currentProc.alwaysReturns());
+    }
     /** Debugging message output */
     private void debugMessage( String msg ) {
         errors.debugMessage( msg );
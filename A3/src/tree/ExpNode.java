@@ -83,6 +83,8 @@ public abstract class ExpNode {
         private String id;
         private SymEntry.ProcedureEntry procEntry;
         private List<ExpNode.ActualParamNode> parameters;
+        /** Expression giving the value of each formal parameter */
+        private List<ExpNode> boundParameters;
 
         public ReturnExpNode( Location loc, String id ) {
             super( loc );
@@ -114,6 +116,27 @@ public abstract class ExpNode {
             return this.parameters;
         }
 
+        /**
+         * Returns the expressions bound to the formal parameters by
+         * the static checker, in the order of the formal parameters.
+         * Each is the actual parameter of the same name, if there is
+         * one, or else the default for the formal parameter.
+         *
+         * @return A list of expressions, one for each formal parameter
+         */
+        public List<ExpNode> getBoundParameters() {
+            return boundParameters;
+        }
+
+        /**
+         * Sets the expressions bound to the formal parameters
+         *
+         * @param boundParameters One expression for each formal parameter
+         */
+        public void setBoundParameters(List<ExpNode> boundParameters) {
+            this.boundParameters = boundParameters;
+        }
+
         public String getId() {
             return id;
         }
@@ -265,6 +265,8 @@ public abstract class StatementNode {
         private String id;
         private SymEntry.ProcedureEntry procEntry;
         private List<ExpNode.ActualParamNode> parameters;
+        /** Expression giving the value of each formal parameter */
+        private List<ExpNode> boundParameters;
 
         public CallNode( Location loc, String id ) {
             super( loc );
@@ -298,6 +300,27 @@ public abstract class StatementNode {
             return this.parameters;
         }
 
+        /**
+         * Returns the expressions bound to the formal parameters by
+         * the static checker, in the order of the formal parameters.
+         * Each is the actual parameter of the same name, if there is
+         * one, or else the default for the formal parameter.
+         *
+         * @return A list of expressions, one for each formal parameter
+         */
+        public List<ExpNode> getBoundParameters() {
+            return boundParameters;
+        }
+
+        /**
+         * Sets the expressions bound to the formal parameters
+         *
+         * @param boundParameters One expression for each formal parameter
+         */
+        public void setBoundParameters(List<ExpNode> boundParameters) {
+            this.boundParameters = boundParameters;
+        }
+
         public String getId() {
             return id;
         }
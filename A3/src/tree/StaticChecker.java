@@ -1,6 +1,6 @@
 package tree;
-import java.util.HashSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
@@ -36,6 +36,14 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     private Errors errors;
     /** Track the tree node currently being checked (for debugging) */
     private Stack<String> nodeStack;
+    /** The functions called by each procedure checked */
+    private Map<SymEntry.ProcedureEntry, Set<SymEntry.ProcedureEntry>> 
+        callees = new HashMap<SymEntry.ProcedureEntry, 
+                        Set<SymEntry.ProcedureEntry>>();
+    /** The procedures that read, write, call a procedure or access a
+     * variable that is not local to them */
+    private Set<SymEntry.ProcedureEntry> impure = 
+        new HashSet<SymEntry.ProcedureEntry>();
 
     /** Construct a static checker for PL0.
      * @param errors is the error message handler.
@@ -77,6 +85,160 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     }
     
     
+    /**
+     * Checks the actual parameters of a call against the formal
+     * parameters of the procedure called, and binds each formal
+     * parameter to the expression giving its value: the actual
+     * parameter of the same name, or else its default expression.
+     * The code generator then evaluates the parameters in positional
+     * order without matching names.
+     *
+     * @param proc The procedure entry
+     * @param params The actual parameters of the call
+     * @param loc Location of the call for errors
+     * @return The expression bound to each formal parameter, in the order
+     * of the formal parameters
+     */
+    private List<ExpNode> bindParams(SymEntry.ProcedureEntry proc,
+            List<ExpNode.ActualParamNode> params, Location loc) {
+        List<SymEntry.ParamEntry> formalParams = proc.getType().getFormalParams();
+        
+        // Position of each formal parameter by name
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (SymEntry.ParamEntry f : formalParams) {
+            positions.put(f.getIdent(), positions.size());
+        }
+        List<ExpNode> bound = new ArrayList<ExpNode>(formalParams.size());
+        for (int i = 0; i < formalParams.size(); i++) {
+            bound.add(null);
+        }
+
+        for (int i = 0; i < params.size(); i++) {
+            // Transform the node
+            // Typecast should never fail
+            params.set(i, (ExpNode.ActualParamNode)params.get(i).transform(this));
+
+            ExpNode.ActualParamNode param = params.get(i);
+            Integer position = positions.get(param.getIdentifier());
+
+            if (position == null) {
+                staticError("not a parameter of procedure", param.getLocation());
+                continue;
+            }
+            SymEntry.ParamEntry f = formalParams.get(position);
+
+            // Transform the condition
+            param.setCondition( param.getCondition().transform(this) ); 
+
+            // Check the types
+            Type formalParamType = f.getType().optDereferenceType();
+            Type paramType = param.getCondition().getType().optDereferenceType();
+
+            // Check the types are compatible
+            try {
+                ExpNode cond = formalParamType.coerceToType(param.getCondition());
+                param.setCondition(cond);
+            } catch (Type.IncompatibleTypes e) {
+                staticError("can't coerce " + paramType + " to " + formalParamType, param.getCondition().getLocation());
+            }
+            bound.set(position, param.getCondition());
+        }
+
+        // Check that all non default parameters have been supplied
+        for (int i = 0; i < formalParams.size(); i++) {
+            SymEntry.ParamEntry p = formalParams.get(i);
+            if (bound.get(i) != null) {
+                continue;
+            }
+            if (p.getDefaultExp() == null) {
+                staticError("no value for parameter " + p.getIdent(), loc);
+            } else {
+                bound.set(i, p.getDefaultExp());
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Evaluates an expression made up only of constants, operators
+     * (other than division by zero) and subrange conversions that
+     * succeed, so that its value is computed once at compile time
+     * rather than each time it is used.
+     *
+     * @param exp The expression to fold
+     * @return A constant node with the value of the expression, if it
+     * is constant, otherwise exp itself
+     */
+    private ExpNode foldConstant(ExpNode exp) {
+        if (exp instanceof ExpNode.WidenSubrangeNode) {
+            ExpNode arg = foldConstant(((ExpNode.WidenSubrangeNode)exp).getExp());
+            if (arg instanceof ExpNode.ConstNode) {
+                return new ExpNode.ConstNode(exp.getLocation(), exp.getType(),
+                        ((ExpNode.ConstNode)arg).getValue());
+            }
+        } else if (exp instanceof ExpNode.NarrowSubrangeNode) {
+            ExpNode.NarrowSubrangeNode narrow = (ExpNode.NarrowSubrangeNode)exp;
+            ExpNode arg = foldConstant(narrow.getExp());
+            // A value out of range is left to fail at run time
+            if (arg instanceof ExpNode.ConstNode) {
+                int value = ((ExpNode.ConstNode)arg).getValue();
+                Type.SubrangeType subrange = narrow.getSubrangeType();
+                if (subrange.getLower() <= value &&
+                        value <= subrange.getUpper()) {
+                    return new ExpNode.ConstNode(exp.getLocation(), 
+                            exp.getType(), value);
+                }
+            }
+        } else if (exp instanceof ExpNode.OperatorNode) {
+            ExpNode.OperatorNode opNode = (ExpNode.OperatorNode)exp;
+            List<ExpNode> args;
+            if (opNode.getArg() instanceof ExpNode.ArgumentsNode) {
+                args = ((ExpNode.ArgumentsNode)opNode.getArg()).getArgs();
+            } else {
+                args = new ArrayList<ExpNode>();
+                args.add(opNode.getArg());
+            }
+            int[] values = new int[args.size()];
+            for (int i = 0; i < values.length; i++) {
+                ExpNode arg = foldConstant(args.get(i));
+                if (!(arg instanceof ExpNode.ConstNode)) {
+                    return exp;
+                }
+                values[i] = ((ExpNode.ConstNode)arg).getValue();
+            }
+            Integer value = evaluate(opNode.getOp(), values);
+            if (value != null) {
+                return new ExpNode.ConstNode(exp.getLocation(), exp.getType(),
+                        value);
+            }
+        }
+        return exp;
+    }
+    /** @return the value of op applied to the values, as computed by
+     * the stack machine, or null if it cannot be computed */
+    private Integer evaluate(Operator op, int[] values) {
+        if (op == Operator.NEG_OP && values.length == 1) {
+            return -values[0];
+        } else if (values.length != 2) {
+            return null;
+        }
+        int left = values[0];
+        int right = values[1];
+        switch (op) {
+        case ADD_OP:        return left + right;
+        case SUB_OP:        return left - right;
+        case MUL_OP:        return left * right;
+        case DIV_OP:        return right == 0 ? null : left / right;
+        case EQUALS_OP:     return left == right ? 1 : 0;
+        case NEQUALS_OP:    return left != right ? 1 : 0;
+        case LESS_OP:       return left < right ? 1 : 0;
+        case LEQUALS_OP:    return left <= right ? 1 : 0;
+        case GREATER_OP:    return left > right ? 1 : 0;
+        case GEQUALS_OP:    return left >= right ? 1 : 0;
+        default:            return null;
+        }
+    }
+    
     /** The tree traversal starts with a call to visitProgramNode.
      * Then its descendants are visited using visit methods for each
      * node type, which are called using the visitor pattern "accept"
@@ -87,8 +249,43 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
         beginCheck( "Program" );
         // The main program is a special case of a procedure
         visitProcedureNode( node );
+        classifyPureFunctions();
         endCheck( "Program" );
     }
+    /** Record that the procedure being checked is not pure */
+    private void markImpure() {
+        impure.add( currentScope.getOwnerEntry() );
+    }
+    /** A function is pure if it does not read, write, call a procedure
+     * or access a variable that is not local to it, and it only calls
+     * pure functions. Functions called that are impure (or were not
+     * checked) make their callers impure, until no more change. */
+    private void classifyPureFunctions() {
+        boolean changed = true;
+        while( changed ) {
+            changed = false;
+            for( Entry<SymEntry.ProcedureEntry, Set<SymEntry.ProcedureEntry>> 
+                    calls : callees.entrySet() ) {
+                if( impure.contains( calls.getKey() ) ) {
+                    continue;
+                }
+                for( SymEntry.ProcedureEntry callee : calls.getValue() ) {
+                    if( impure.contains( callee ) || 
+                            !callees.containsKey( callee ) ) {
+                        impure.add( calls.getKey() );
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for( SymEntry.ProcedureEntry proc : callees.keySet() ) {
+            if( !impure.contains( proc ) && 
+                    proc.getType().getResultType() != null ) {
+                proc.setPure( true );
+            }
+        }
+    }
 
     public ExpNode.ActualParamNode visitActualParamNode( ExpNode.ActualParamNode node) {
         beginCheck( "ActualNode" );
@@ -125,58 +322,20 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
             staticError( node.getId() + " should be a function", node.getLocation());
         }
 
-        // Formal parameters list
-        List<SymEntry.ParamEntry> formalParams = procType.getFormalParams();
-
-        HashSet<String> suppliedActualParams = new HashSet<String>();
-
-        for (int i = 0; i < node.getParameters().size(); i++) {
-            // Transform the node
-            // Typecast should never fail
-            node.getParameters().set(i, (ExpNode.ActualParamNode)node.getParameters().get(i).transform(this));
-
-            ExpNode.ActualParamNode param = node.getParameters().get(i);
-            suppliedActualParams.add(param.getIdentifier());
-
-            boolean foundParam = false;
-
-            for (SymEntry.ParamEntry f : formalParams) {
-                if (f.getIdent().equals(param.getIdentifier())) {
-                    foundParam = true;
-
-                    // Transform the condition
-                    param.setCondition( param.getCondition().transform(this) ); 
-
-                    // Check the types
-                    Type formalParamType = f.getType().optDereferenceType();
-                    Type paramType = param.getCondition().getType().optDereferenceType();
-
-                    // Check the types are compatible
-                    // if ( !(formalParamType.equals(paramType)) ) {
-                    //     staticError("Can't coerce " + paramType + " to " + formalParamType, param.getLocation());
-                    // }
-                    try {
-                        ExpNode cond = formalParamType.coerceToType(param.getCondition());
-                        param.setCondition(cond);
-                    } catch (Type.IncompatibleTypes e) {
-                        staticError("can't coerce " + paramType + " to " + formalParamType, param.getCondition().getLocation());
-                    }
-
-                }
-            }
-            
-            if (foundParam == false) {
-                staticError("not a parameter of procedure", param.getLocation());
-            }
-        }
-
-        // Check that all non default parameters have been supplied
-        for (SymEntry.ParamEntry p : formalParams) {
-            // No default value
-            if (p.getDefaultExp() == null) {
-                if ( !(suppliedActualParams.contains(p.getIdent())) ) {
-                    staticError("no value for parameter " + p.getIdent(), node.getLocation());
-                }
+        // Bind the actual parameters to the formal parameters
+        node.setBoundParameters( 
+                bindParams( procEntry, node.getParameters(), 
+                        node.getLocation() ) );
+
+        // A call of a function is pure if the function is, and any
+        // defaults used are constants (they are evaluated by the caller)
+        callees.get( currentScope.getOwnerEntry() ).add( procEntry );
+        List<SymEntry.ParamEntry> formals = procType.getFormalParams();
+        for( int i = 0; i < formals.size(); i++ ) {
+            ExpNode param = node.getBoundParameters().get( i );
+            if( param == formals.get( i ).getDefaultExp() &&
+                    !(param instanceof ExpNode.ConstNode) ) {
+                markImpure();
             }
         }
 
@@ -207,6 +366,7 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     public void visitProcedureNode(DeclNode.ProcedureNode node) {
         beginCheck("Procedure");
         SymEntry.ProcedureEntry procEntry = node.getProcEntry();
+        callees.put( procEntry, new HashSet<SymEntry.ProcedureEntry>() );
 
         // Check parameters
         Type.ProcedureType procType = procEntry.getType();
@@ -221,7 +381,19 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
             localScope.addEntry(param);
 
             if (param.getDefaultExp() != null) {
-                param.setDefaultParam( param.getDefaultExp().transform( this ) );
+                // The default is coerced to the type of the parameter,
+                // as an actual parameter is (dereferencing a variable)
+                ExpNode exp = param.getDefaultExp().transform( this );
+                Type formalType = param.getType().optDereferenceType();
+                try {
+                    exp = formalType.coerceToType( exp );
+                } catch (Type.IncompatibleTypes e) {
+                    staticError("can't coerce " +
+                            exp.getType().optDereferenceType() + " to " +
+                            formalType, exp.getLocation());
+                }
+                // Constant defaults are evaluated once, here
+                param.setDefaultParam( foldConstant( exp ) );
             }
         }
 
@@ -233,8 +405,39 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
         currentScope = localScope;
         // Check the block of the procedure.
         visitBlockNode( node.getBlock() );
+        // A function that returns on every path needs no run time check
+        // that its result has been set
+        if( procType.getResultType() != null ) {
+            procEntry.setAlwaysReturns( 
+                    alwaysReturns( node.getBlock().getBody() ) );
+        }
         endCheck("Procedure");
     }
+    /** A return does not end the execution of a function, so a 
+     * statement list returns if any of its statements does. An if 
+     * statement returns if both its branches do, and a while statement
+     * is assumed not to, as its body may not be executed.
+     * @return whether every path through the statement executes a
+     * return statement */
+    private boolean alwaysReturns( StatementNode statement ) {
+        if( statement instanceof StatementNode.ReturnNode ) {
+            return true;
+        } else if( statement instanceof StatementNode.ListNode ) {
+            for( StatementNode s : 
+                    ((StatementNode.ListNode)statement).getStatements() ) {
+                if( alwaysReturns( s ) ) {
+                    return true;
+                }
+            }
+            return false;
+        } else if( statement instanceof StatementNode.IfNode ) {
+            StatementNode.IfNode ifNode = (StatementNode.IfNode)statement;
+            return alwaysReturns( ifNode.getThenStmt() ) &&
+                alwaysReturns( ifNode.getElseStmt() );
+        } else {
+            return false;
+        }
+    }
     /** Block node */
     public void visitBlockNode(BlockNode node) {
         beginCheck("Block");
@@ -289,6 +492,7 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     /** Write statement node */
     public void visitWriteNode(StatementNode.WriteNode node) {
         beginCheck("Write");
+        markImpure();
         // Check the expression being written.
         ExpNode exp = node.getExp().transform( this );
         // coerce expression to be of type integer,
@@ -300,6 +504,7 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     /** Call statement node */
     public void visitCallNode(StatementNode.CallNode node) {
         beginCheck("Call");
+        markImpure();
         SymEntry.ProcedureEntry procEntry = null;
         // Look up the symbol table entry for the procedure.
         SymEntry entry = currentScope.lookup( node.getId() );
@@ -320,60 +525,10 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
             staticError( "cannot call a function from a call statement", node.getLocation());
         }
 
-        // Formal parameters list
-        List<SymEntry.ParamEntry> formalParams = procType.getFormalParams();
-
-        HashSet<String> suppliedActualParams = new HashSet<String>();
-
-        for (int i = 0; i < node.getParameters().size(); i++) {
-            // Transform the node
-            // Typecast should never fail
-            node.getParameters().set(i, (ExpNode.ActualParamNode)node.getParameters().get(i).transform(this));
-
-            ExpNode.ActualParamNode param = node.getParameters().get(i);
-            suppliedActualParams.add(param.getIdentifier());
-
-            boolean foundParam = false;
-
-            for (SymEntry.ParamEntry f : formalParams) {
-                if (f.getIdent().equals(param.getIdentifier())) {
-                    foundParam = true;
-
-                    // Transform the condition
-                    param.setCondition( param.getCondition().transform(this) ); 
-
-                    // Check the types
-                    Type formalParamType = f.getType().optDereferenceType();
-                    Type paramType = param.getCondition().getType().optDereferenceType();
-
-                    // Check the types are compatible
-                    // if ( !(formalParamType.equals(paramType)) ) {
-                    //     staticError("Can't coerce " + paramType + " to " + formalParamType, param.getLocation());
-                    // }
-                    try {
-                        ExpNode cond = formalParamType.coerceToType(param.getCondition());
-                        param.setCondition(cond);
-                    } catch (Type.IncompatibleTypes e) {
-                        staticError("can't coerce " + paramType + " to " + formalParamType, param.getCondition().getLocation());
-                    }
-
-                }
-            }
-
-            if (foundParam == false) {
-                staticError("not a parameter of procedure", param.getLocation());
-            }
-        }
-
-        // Check that all non default parameters have been supplied
-        for (SymEntry.ParamEntry p : formalParams) {
-            // No default value
-            if (p.getDefaultExp() == null) {
-                if ( !(suppliedActualParams.contains(p.getIdent())) ) {
-                    staticError("no value for parameter " + p.getIdent(), node.getLocation());
-                }
-            }
-        }
+        // Bind the actual parameters to the formal parameters
+        node.setBoundParameters( 
+                bindParams( procEntry, node.getParameters(), 
+                        node.getLocation() ) );
 
         endCheck("Call");
     }
@@ -434,6 +589,7 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
     /** Reads an integer value from input */
     public ExpNode visitReadNode(ExpNode.ReadNode node) {
         beginCheck("Read");
+        markImpure();
         // type already set up
         endCheck("Read");
         return node;
@@ -557,6 +713,9 @@ public class StaticChecker implements DeclVisitor, StatementVisitor,
             // Set up a new node which is a variable.
             SymEntry.VarEntry varEntry = (SymEntry.VarEntry)entry;
             newNode = new ExpNode.VariableNode(node.getLocation(), varEntry);
+            if( varEntry.getLevel() != currentScope.getLevel() ) {
+                markImpure();
+            }
         } else {
             // Undefined identifier or a type or procedure identifier.
             // Set up new node to be an error node.
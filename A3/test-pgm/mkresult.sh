@@ -10,7 +10,9 @@ elif [ -f "$1" ]; then
 #    java ${MAIN} $1 2> errors/e-$1 | tee results/r-$1
 #   java ${MAIN} $1 -v 2> errors/e-$1 | tee results/r-$1
 #   java ${MAIN} $1 -v -t 2> errors/e-$1 | tee results/r-$1
-   java ${MAIN} $1 2> errors/e-$1 | tee results/r-$1
+#   Options for the compiler may be given by a "// options:" line
+   OPTIONS=`sed -n 's|^// *options: *||p' $1`
+   java ${MAIN} ${OPTIONS} $1 2> errors/e-$1 | tee results/r-$1
     cat errors/e-$1
 else
     echo "<$1>" does not exist
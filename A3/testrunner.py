@@ -66,6 +66,14 @@ def get_test_files(path):
 
     return pl0_files
 
+def get_options(path_to_pl0_file):
+    """ Get the compiler options given by a "// options:" line, if any """
+    with open(path_to_pl0_file, 'r') as pl0_fd:
+        for line in pl0_fd:
+            if line.startswith('// options:'):
+                return line[len('// options:'):].strip()
+    return ''
+
 def run_test(pl0_file, classpath, path):
     path_to_pl0_file = os.path.join(os.getcwd(), path, pl0_file)
     result_file = os.path.join(os.getcwd(), RESULT_DIR, 'r-{}'.format(pl0_file))
@@ -74,7 +82,8 @@ def run_test(pl0_file, classpath, path):
     with open(result_file, 'w') as result_fd:
         with open(error_file, 'w') as error_fd:
 
-            cmd = 'java -cp {} {} {}'.format(classpath, MAIN, path_to_pl0_file)
+            cmd = 'java -cp {} {} {} {}'.format(classpath, MAIN,
+                    get_options(path_to_pl0_file), path_to_pl0_file)
             print('>>> ' + cmd)
 
             subprocess.call(cmd,